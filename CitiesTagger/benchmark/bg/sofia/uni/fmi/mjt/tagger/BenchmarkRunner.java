@@ -0,0 +1,26 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Path;
+
+/**
+ * Runs the CitiesTagger benchmarks from the module directory, e.g. all of them with no arguments
+ * or only those matching a regular expression such as "TagCities".
+ */
+public class BenchmarkRunner {
+
+    static final Path CITIES_CSV = Path.of("world-cities.csv");
+    static final long SEED = 20_201_215L;
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : BenchmarkRunner.class.getPackageName() + ".*Benchmark")
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,83 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * Generates synthetic texts for benchmarking, seeded from a real list of cities. A text consists of lines
+ * of roughly the same length whose words are either filler words or city names, in a given proportion.
+ * The same seed always yields the same text, so runs before and after a change see identical input.
+ */
+public class CorpusGenerator {
+
+    private static final String[] FILLER_WORDS = {
+        "the", "of", "and", "a", "to", "in", "is", "was", "he", "for", "it", "with", "as", "his", "on", "be",
+        "at", "by", "had", "are", "but", "from", "or", "have", "an", "they", "which", "one", "you", "were",
+        "river", "market", "travelled", "northern", "station", "between", "population", "museum", "century"
+    };
+    private static final String[] PUNCTUATION = {" ", " ", " ", ", ", ". ", "; "};
+
+    private final List<String> cities;
+    private final Random random;
+
+    /**
+     * @param cities the names of the cities that may appear in the texts
+     * @param seed   the seed of the generated texts
+     */
+    public CorpusGenerator(List<String> cities, long seed) {
+        if (cities.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        this.cities = List.copyOf(cities);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Creates a generator using the cities of a list in the CSV format of Tagger.
+     *
+     * @param citiesCsv the path of the list of cities
+     * @param seed      the seed of the generated texts
+     */
+    public static CorpusGenerator fromCsv(Path citiesCsv, long seed) throws IOException {
+        try (var lines = Files.lines(citiesCsv)) {
+            List<String> cities = lines.filter(line -> line.indexOf(',') > 0)
+                    .map(line -> line.substring(0, line.indexOf(',')))
+                    .collect(Collectors.toList());
+            return new CorpusGenerator(cities, seed);
+        }
+    }
+
+    /**
+     * @param length      the approximate length of the text in chars
+     * @param lineLength  the approximate length of a line in chars
+     * @param cityDensity the probability of a word being a city name, between 0 and 1
+     * @return a text of lines separated by line feeds
+     */
+    public String generate(int length, int lineLength, double cityDensity) {
+        if (length < 0 || lineLength <= 0 || cityDensity < 0 || cityDensity > 1) {
+            throw new IllegalArgumentException();
+        }
+        StringBuilder text = new StringBuilder(length + lineLength);
+        int lineStart = 0;
+        while (text.length() < length) {
+            if (random.nextDouble() < cityDensity) {
+                text.append(cities.get(random.nextInt(cities.size())));
+            } else {
+                text.append(FILLER_WORDS[random.nextInt(FILLER_WORDS.length)]);
+            }
+
+            if (text.length() - lineStart >= lineLength) {
+                text.append('\n');
+                lineStart = text.length();
+            } else {
+                text.append(PUNCTUATION[random.nextInt(PUNCTUATION.length)]);
+            }
+        }
+        return text.toString();
+    }
+
+}
@@ -0,0 +1,71 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to get a Tagger ready: parsing the CSV list of cities, loading a compiled
+ * dictionary together with its matcher, and building the matcher of a dictionary read from CSV.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class DictionaryLoadBenchmark {
+
+    private String citiesCsv;
+    private CityDictionary dictionary;
+    private Path compiledDictionary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        citiesCsv = Files.readString(BenchmarkRunner.CITIES_CSV);
+        dictionary = CityDictionary.readCsv(new StringReader(citiesCsv));
+        compiledDictionary = Files.createTempFile("cities", ".dict");
+        dictionary.write(compiledDictionary);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(compiledDictionary);
+    }
+
+    @Benchmark
+    public CityDictionary readCsv() {
+        return CityDictionary.readCsv(new StringReader(citiesCsv));
+    }
+
+    @Benchmark
+    public CityDictionary loadCompiled() throws IOException {
+        return CityDictionary.load(compiledDictionary);
+    }
+
+    @Benchmark
+    public Tagger loadCompiledTagger() throws IOException {
+        return new Tagger(CityDictionary.load(compiledDictionary));
+    }
+
+    @Benchmark
+    public CityMatcher buildMatcher() {
+        return new CityMatcher(dictionary);
+    }
+
+}
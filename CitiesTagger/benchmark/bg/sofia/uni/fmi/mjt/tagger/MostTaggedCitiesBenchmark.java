@@ -0,0 +1,57 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures getNMostTaggedCities() for different n after tagging a city-dense text,
+ * in which most cities of the dictionary have been tagged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MostTaggedCitiesBenchmark {
+
+    private static final int CORPUS_LENGTH = 8 << 20;
+    private static final int LINE_LENGTH = 200;
+    private static final double CITY_DENSITY = 0.5;
+
+    @Param({"1", "10", "100", "10000"})
+    public int n;
+
+    private Tagger tagger;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tagger = new Tagger(CityDictionary.readCsv(Files.newBufferedReader(BenchmarkRunner.CITIES_CSV)));
+        String corpus = CorpusGenerator.fromCsv(BenchmarkRunner.CITIES_CSV, BenchmarkRunner.SEED)
+                .generate(CORPUS_LENGTH, LINE_LENGTH, CITY_DENSITY);
+        tagger.tagCities(new StringReader(corpus), Writer.nullWriter());
+    }
+
+    @Benchmark
+    public Collection<String> getNMostTaggedCities() {
+        return tagger.getNMostTaggedCities(n);
+    }
+
+}
@@ -0,0 +1,58 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures tagCities() on synthetic texts of different line lengths and city densities.
+ * The output is discarded, so the score reflects matching and tag formatting rather than the Writer.
+ * Divide the size of the corpus by the score for the throughput in chars per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(2)
+public class TagCitiesBenchmark {
+
+    private static final int CORPUS_LENGTH = 4 << 20;
+
+    @Param({"80", "1000"})
+    public int lineLength;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double cityDensity;
+
+    private Tagger tagger;
+    private String corpus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        tagger = new Tagger(CityDictionary.readCsv(Files.newBufferedReader(BenchmarkRunner.CITIES_CSV)));
+        corpus = CorpusGenerator.fromCsv(BenchmarkRunner.CITIES_CSV, BenchmarkRunner.SEED)
+                .generate(CORPUS_LENGTH, lineLength, cityDensity);
+    }
+
+    @Benchmark
+    public TaggingResult tagCities() throws IOException {
+        return tagger.tagCities(new StringReader(corpus), Writer.nullWriter());
+    }
+
+}
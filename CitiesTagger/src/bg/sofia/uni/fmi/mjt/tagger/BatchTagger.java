@@ -0,0 +1,139 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Tags every file of a directory tree with a shared Tagger, one task per document, and aggregates
+ * the statistics of all documents into a single corpus-wide TaggingResult.
+ * All documents of a directory are tagged with the dictionary the Tagger uses when tagDirectory() starts,
+ * even if it is reloaded in the meantime.
+ * <p>
+ * The documents are tagged on the given Executor with at most a fixed number of them in flight.
+ * A thread pool works, and on a Java runtime with virtual threads an executor creating
+ * a virtual thread per task lets the limit, rather than the pool size, bound the concurrency.
+ */
+public class BatchTagger {
+
+    private final Tagger tagger;
+    private final Executor executor;
+    private final int maxConcurrency;
+
+    /**
+     * @param tagger         the Tagger shared by all documents
+     * @param executor       the executor running one task per document
+     * @param maxConcurrency the maximum number of documents tagged at the same time
+     * @throws IllegalArgumentException if @maxConcurrency is not positive
+     */
+    public BatchTagger(Tagger tagger, Executor executor, int maxConcurrency) {
+        if (tagger == null || executor == null || maxConcurrency <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tagger = tagger;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Tags every regular file under @inputRoot and writes the result to the same relative path
+     * under @outputRoot, creating directories as needed.
+     *
+     * @param inputRoot  the root of the directory tree to be tagged
+     * @param outputRoot the root of the directory tree receiving the tagged files. It must be neither @inputRoot
+     *                   nor inside it, as the tagged files would be walked and tagged again
+     * @return the statistics of all documents together. Their metrics sum up the work of all documents,
+     * with the elapsed time of the whole directory. Per-document latencies are in Tagger.getMetrics()
+     * @throws IOException              if a document cannot be read or written, or its tagging fails with
+     *                                  an unchecked exception, which is then the cause. The remaining documents
+     *                                  are still tagged
+     * @throws IllegalArgumentException if @outputRoot is @inputRoot or inside it
+     */
+    public TaggingResult tagDirectory(Path inputRoot, Path outputRoot) throws IOException {
+        if (outputRoot.toAbsolutePath().normalize().startsWith(inputRoot.toAbsolutePath().normalize())) {
+            throw new IllegalArgumentException("The output directory must be outside of the input directory");
+        }
+
+        long start = System.nanoTime();
+        CityMatcher matcher = tagger.currentMatcher();
+        TagStatistics corpusStatistics = tagger.newStatistics();
+        AtomicReference<TaggingMetrics> corpusMetrics = new AtomicReference<>(TaggingMetrics.NONE);
+        Queue<IOException> failures = new ConcurrentLinkedQueue<>();
+        Semaphore permits = new Semaphore(maxConcurrency);
+
+        try (Stream<Path> files = Files.walk(inputRoot)) {
+            try {
+                Iterator<Path> documents = files.filter(Files::isRegularFile).iterator();
+                while (documents.hasNext()) {
+                    Path document = documents.next();
+                    Path output = outputRoot.resolve(inputRoot.relativize(document).toString());
+
+                    permits.acquire();
+                    try {
+                        executor.execute(() -> {
+                            try {
+                                TaggingResult result = tagDocument(matcher, document, output);
+                                synchronized (corpusStatistics) {
+                                    result.addTo(corpusStatistics);
+                                }
+                                corpusMetrics.accumulateAndGet(result.getMetrics(), TaggingMetrics::plus);
+                            } catch (IOException e) {
+                                failures.add(e);
+                            } catch (RuntimeException e) {
+                                failures.add(new IOException("Tagging of " + document + " failed", e));
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+            } finally {
+                // however the walk ends, no started task may go on writing under outputRoot after returning
+                permits.acquireUninterruptibly(maxConcurrency);
+                permits.release(maxConcurrency);
+            }
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while tagging " + inputRoot);
+        }
+
+        if (!failures.isEmpty()) {
+            IOException failure = failures.remove();
+            failures.forEach(failure::addSuppressed);
+            throw failure;
+        }
+        synchronized (corpusStatistics) {
+            return new TaggingResult(matcher.dictionary(), corpusStatistics,
+                    corpusMetrics.get().withElapsedNanos(System.nanoTime() - start));
+        }
+    }
+
+    private TaggingResult tagDocument(CityMatcher matcher, Path document, Path output) throws IOException {
+        Path outputDirectory = output.getParent();
+        if (outputDirectory != null) {
+            Files.createDirectories(outputDirectory);
+        }
+        try (Reader text = Files.newBufferedReader(document);
+             Writer tagged = Files.newBufferedWriter(output)) {
+            return tagger.tagCities(matcher, text, tagged);
+        }
+    }
+
+}
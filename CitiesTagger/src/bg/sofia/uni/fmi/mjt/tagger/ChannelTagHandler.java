@@ -0,0 +1,142 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * Encodes the scanned text straight into a direct buffer and writes it to a channel, wrapping every city
+ * in a city tag. The encoded tag of a city is built once per handler and reused for every later occurrence.
+ */
+class ChannelTagHandler implements TagHandler {
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel output;
+    private final Charset charset;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private final CityDictionary dictionary;
+    private final byte[][] encodedTags;
+
+    private final CharBuffer surrogatePair;
+    private char[] wrappedText;
+    private CharBuffer wrappedChars;
+    private char pendingHighSurrogate;
+
+    ChannelTagHandler(WritableByteChannel output, Charset charset, CityDictionary dictionary) {
+        this.output = output;
+        this.charset = charset;
+        this.encoder = charset.newEncoder();
+        this.bytes = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        this.dictionary = dictionary;
+        this.encodedTags = new byte[dictionary.size()][];
+        this.surrogatePair = CharBuffer.allocate(2);
+    }
+
+    @Override
+    public void text(char[] text, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        if (pendingHighSurrogate != 0) {
+            surrogatePair.clear();
+            surrogatePair.put(pendingHighSurrogate).put(text[offset]).flip();
+            pendingHighSurrogate = 0;
+            encode(surrogatePair, false);
+            offset++;
+            length--;
+        }
+        // a surrogate pair may be split between two spans, so its first half waits for the next span
+        if (length > 0 && Character.isHighSurrogate(text[offset + length - 1])) {
+            pendingHighSurrogate = text[offset + length - 1];
+            length--;
+        }
+
+        if (text != wrappedText) {
+            wrappedText = text;
+            wrappedChars = CharBuffer.wrap(text);
+        }
+        wrappedChars.limit(offset + length).position(offset);
+        encode(wrappedChars, false);
+    }
+
+    @Override
+    public void city(int city, char[] text, int offset, int length, long position) throws IOException {
+        flushPendingHighSurrogate();
+
+        byte[] tag = encodedTags[city];
+        if (tag == null) {
+            StringBuilder tagString = new StringBuilder();
+            WriterTagHandler.appendTag(tagString, dictionary, city);
+            tag = tagString.toString().getBytes(charset);
+            encodedTags[city] = tag;
+        }
+
+        if (bytes.remaining() < tag.length) {
+            drain();
+        }
+        if (bytes.remaining() < tag.length) {
+            output.write(ByteBuffer.wrap(tag));
+        } else {
+            bytes.put(tag);
+        }
+    }
+
+    /**
+     * Writes everything encoded so far to the channel.
+     */
+    void flush() throws IOException {
+        surrogatePair.clear();
+        if (pendingHighSurrogate != 0) {
+            surrogatePair.put(pendingHighSurrogate);
+            pendingHighSurrogate = 0;
+        }
+        encode(surrogatePair.flip(), true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain();
+        }
+        drain();
+    }
+
+    private void flushPendingHighSurrogate() throws IOException {
+        if (pendingHighSurrogate != 0) {
+            surrogatePair.clear();
+            surrogatePair.put(pendingHighSurrogate).flip();
+            pendingHighSurrogate = 0;
+            // the input goes on after the tag, so only flush() may tell the encoder that it has ended
+            encode(surrogatePair, false);
+            if (surrogatePair.hasRemaining()) {
+                // a tag follows, so the high surrogate is never completed by a low one
+                throw new MalformedInputException(surrogatePair.remaining());
+            }
+        }
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            } else if (result.isOverflow()) {
+                drain();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            output.write(bytes);
+        }
+        bytes.clear();
+    }
+
+}
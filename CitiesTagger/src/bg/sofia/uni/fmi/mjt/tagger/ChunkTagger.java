@@ -0,0 +1,57 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Callable;
+
+/**
+ * Tags one chunk of a larger text into a private buffer, so that chunks can be tagged in parallel
+ * and written out in their original order afterwards. A chunk must end at a line boundary.
+ */
+class ChunkTagger implements Callable<ChunkTagger> {
+
+    private final char[] chunk;
+    private final int length;
+    private final CharArrayWriter output;
+    private final TagCounter tagCounter;
+    private final CityScanner scanner;
+
+    ChunkTagger(char[] chunk, int length, CityMatcher cityMatcher) {
+        this.chunk = chunk;
+        this.length = length;
+        this.output = new CharArrayWriter(length + length / 4);
+        this.tagCounter = new TagCounter();
+        this.scanner = new CityScanner(cityMatcher, new WriterTagHandler(output, cityMatcher.dictionary()),
+                tagCounter);
+    }
+
+    @Override
+    public ChunkTagger call() throws IOException {
+        scanner.scan(chunk, 0, length, true);
+        return this;
+    }
+
+    /**
+     * @return the buffer holding the text of the chunk, which can be reused once the chunk has been tagged
+     */
+    char[] getChunk() {
+        return chunk;
+    }
+
+    void writeTo(Writer writer) throws IOException {
+        output.writeTo(writer);
+    }
+
+    /**
+     * Records the tags of this chunk in the statistics of the whole run.
+     */
+    void addTo(TagStatistics statistics) {
+        tagCounter.addTo(statistics);
+    }
+
+    TaggingMetrics getMetrics() {
+        return scanner.getMetrics(0, 0);
+    }
+
+}
@@ -0,0 +1,394 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable list of city/country pairs, safe to share between threads and Taggers.
+ * City names are sorted and stored back to back in a single character arena, and every city refers
+ * to its country through an index into a table of distinct country names. Cities are identified
+ * by their position in the sorted order.
+ * <p>
+ * A dictionary can be read from the CSV format (one "city,country" pair per line) or from the compiled
+ * binary format written by write(), which is loaded by memory-mapping the file. The compiled format also
+ * holds the trie of the CityMatcher, so a loaded dictionary is ready for tagging without rebuilding it.
+ */
+public class CityDictionary {
+
+    private static final int MAGIC = 0x43544443;
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_MATCHER = 1;
+    private static final int HEADER_INTS = 2;
+    private static final char SEPARATOR = ',';
+    private static final int HASH_PRIME = 31;
+    private static final int HASH_SPREAD_SHIFT = 16;
+
+    private final char[] cityArena;
+    private final int[] cityOffsets;
+    private final int[] cityCountries;
+    private final String[] countries;
+    private final String[] cityNameCache;
+    private final int[] caseInsensitiveIndex;
+    private volatile CityMatcher matcher;
+
+    private CityDictionary(char[] cityArena, int[] cityOffsets, int[] cityCountries, String[] countries) {
+        this.cityArena = cityArena;
+        this.cityOffsets = cityOffsets;
+        this.cityCountries = cityCountries;
+        this.countries = countries;
+        this.cityNameCache = new String[cityCountries.length];
+        this.caseInsensitiveIndex = new int[Integer.highestOneBit(Math.max(1, 2 * cityCountries.length)) * 2];
+
+        CharSequence arena = CharBuffer.wrap(cityArena);
+        for (int city = 0; city < cityCountries.length; city++) {
+            indexIgnoringCase(city, arena);
+        }
+    }
+
+    /**
+     * Reads a dictionary in the CSV format. If a city is listed more than once, its last entry is used.
+     *
+     * @param citiesReader a java.io.Reader input stream containing list of cities and countries
+     *                     in the specified CSV format
+     * @throws IllegalArgumentException if a line is not a city/country pair
+     * @throws UncheckedIOException     if reading fails
+     */
+    public static CityDictionary readCsv(Reader citiesReader) {
+        Map<String, String> citiesCountryRegister = new TreeMap<>();
+        try (BufferedReader br = new BufferedReader(citiesReader)) {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int separator = line.indexOf(SEPARATOR);
+                if (separator <= 0 || separator == line.length() - 1) {
+                    throw new IllegalArgumentException("Malformed city entry at line " + lineNumber + ": " + line);
+                }
+                citiesCountryRegister.put(line.substring(0, separator), line.substring(separator + 1));
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the list of cities", e);
+        }
+        return fromSortedRegister(citiesCountryRegister);
+    }
+
+    /**
+     * Loads a dictionary compiled by write() by memory-mapping the file. Files written before the matcher
+     * was stored are still accepted; their matcher is built when it is first needed.
+     *
+     * @param compiledDictionary the path of the compiled dictionary
+     * @throws IOException if the file cannot be read or is not a compiled dictionary
+     */
+    public static CityDictionary load(Path compiledDictionary) throws IOException {
+        try (FileChannel channel = FileChannel.open(compiledDictionary, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < HEADER_INTS * Integer.BYTES || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a compiled city dictionary: " + compiledDictionary);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION && version != VERSION_WITHOUT_MATCHER) {
+                throw new IOException("Unsupported compiled city dictionary version " + version + ": "
+                        + compiledDictionary);
+            }
+
+            char[] countryArena = readChars(buffer, buffer.getInt());
+            int[] countryOffsets = readInts(buffer, buffer.getInt());
+            char[] cityArena = readChars(buffer, buffer.getInt());
+            int[] cityOffsets = readInts(buffer, buffer.getInt());
+            int[] cityCountries = readInts(buffer, buffer.getInt());
+
+            String[] countries = new String[countryOffsets.length - 1];
+            for (int i = 0; i < countries.length; i++) {
+                countries[i] = new String(countryArena, countryOffsets[i], countryOffsets[i + 1] - countryOffsets[i]);
+            }
+            if (!areCitiesConsistent(cityArena, cityOffsets, cityCountries, countries.length)) {
+                throw new IOException("Corrupted compiled city dictionary: " + compiledDictionary);
+            }
+            CityDictionary dictionary = new CityDictionary(cityArena, cityOffsets, cityCountries, countries);
+            if (version == VERSION) {
+                dictionary.matcher = CityMatcher.read(dictionary, buffer);
+            }
+            return dictionary;
+
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted compiled city dictionary: " + compiledDictionary, e);
+        }
+    }
+
+    /**
+     * Writes the dictionary in the compiled binary format.
+     *
+     * @param compiledDictionary the path of the file to be written
+     */
+    public void write(Path compiledDictionary) throws IOException {
+        int[] countryOffsets = new int[countries.length + 1];
+        StringBuilder countryArena = new StringBuilder();
+        for (int i = 0; i < countries.length; i++) {
+            countryArena.append(countries[i]);
+            countryOffsets[i + 1] = countryArena.length();
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(compiledDictionary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(countryArena.length());
+            out.writeChars(countryArena.toString());
+            writeInts(out, countryOffsets);
+
+            out.writeInt(cityArena.length);
+            for (char c : cityArena) {
+                out.writeChar(c);
+            }
+            writeInts(out, cityOffsets);
+            writeInts(out, cityCountries);
+
+            matcher().write(out);
+        }
+    }
+
+    /**
+     * @return the number of cities in the dictionary
+     */
+    public int size() {
+        return cityCountries.length;
+    }
+
+    /**
+     * @param city the id of a city
+     * @return the name of the city
+     */
+    public String cityName(int city) {
+        // a benign race between threads at worst creates the same String twice
+        String cityName = cityNameCache[city];
+        if (cityName == null) {
+            cityName = new String(cityArena, cityOffsets[city], cityOffsets[city + 1] - cityOffsets[city]);
+            cityNameCache[city] = cityName;
+        }
+        return cityName;
+    }
+
+    /**
+     * @param city the id of a city
+     * @return the name of the country of the city
+     */
+    public String country(int city) {
+        return countries[cityCountries[city]];
+    }
+
+    /**
+     * @param cityName the exact name of a city
+     * @return the id of the city or -1 if the dictionary does not contain it
+     */
+    public int indexOf(String cityName) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareCityName(middle, cityName);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks a city up by its name regardless of case, without creating any intermediate objects.
+     *
+     * @param cityName the name of a city in any case
+     * @return the id of the city or -1 if the dictionary does not contain it
+     */
+    public int indexOfIgnoreCase(CharSequence cityName) {
+        return indexOfIgnoreCase(cityName, 0, cityName.length());
+    }
+
+    /**
+     * Looks a city up by a window of a text regardless of case, without creating any intermediate objects.
+     * The canonical spelling of the found city is available through cityName() and its country through country().
+     *
+     * @param text  the text containing the name of a city
+     * @param start the start (inclusive) of the name in @text
+     * @param end   the end (exclusive) of the name in @text
+     * @return the id of the city or -1 if the dictionary does not contain it
+     */
+    public int indexOfIgnoreCase(CharSequence text, int start, int end) {
+        int mask = caseInsensitiveIndex.length - 1;
+        for (int slot = hashIgnoringCase(text, start, end) & mask; ; slot = (slot + 1) & mask) {
+            int city = caseInsensitiveIndex[slot] - 1;
+            if (city < 0) {
+                return -1;
+            } else if (cityNameEqualsIgnoringCase(city, text, start, end)) {
+                return city;
+            }
+        }
+    }
+
+    /**
+     * @return the matcher of the dictionary, loaded with it or built on first use
+     */
+    CityMatcher matcher() {
+        // a benign race between threads at worst builds the same matcher twice
+        CityMatcher cityMatcher = matcher;
+        if (cityMatcher == null) {
+            cityMatcher = new CityMatcher(this);
+            matcher = cityMatcher;
+        }
+        return cityMatcher;
+    }
+
+    int cityNameLength(int city) {
+        return cityOffsets[city + 1] - cityOffsets[city];
+    }
+
+    char cityNameCharAt(int city, int index) {
+        return cityArena[cityOffsets[city] + index];
+    }
+
+    private int compareCityName(int city, String cityName) {
+        int from = cityOffsets[city];
+        int length = cityOffsets[city + 1] - from;
+        int commonLength = Math.min(length, cityName.length());
+        for (int i = 0; i < commonLength; i++) {
+            char c = cityArena[from + i];
+            if (c != cityName.charAt(i)) {
+                return c - cityName.charAt(i);
+            }
+        }
+        return length - cityName.length();
+    }
+
+    private void indexIgnoringCase(int city, CharSequence arena) {
+        int from = cityOffsets[city];
+        int to = cityOffsets[city + 1];
+
+        int mask = caseInsensitiveIndex.length - 1;
+        int slot = hashIgnoringCase(arena, from, to) & mask;
+        while (caseInsensitiveIndex[slot] != 0
+                && !cityNameEqualsIgnoringCase(caseInsensitiveIndex[slot] - 1, arena, from, to)) {
+            slot = (slot + 1) & mask;
+        }
+        // names differing only in case share a slot; the last one wins, as in the case-folded trie
+        caseInsensitiveIndex[slot] = city + 1;
+    }
+
+    private boolean cityNameEqualsIgnoringCase(int city, CharSequence text, int start, int end) {
+        int from = cityOffsets[city];
+        if (cityOffsets[city + 1] - from != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (foldCase(cityArena[from + i - start]) != foldCase(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hashIgnoringCase(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = HASH_PRIME * hash + foldCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> HASH_SPREAD_SHIFT);
+    }
+
+    static char foldCase(char c) {
+        return Character.toLowerCase(c);
+    }
+
+    private static CityDictionary fromSortedRegister(Map<String, String> citiesCountryRegister) {
+        int[] cityOffsets = new int[citiesCountryRegister.size() + 1];
+        int[] cityCountries = new int[citiesCountryRegister.size()];
+        StringBuilder cityArena = new StringBuilder();
+        Map<String, Integer> countryIndex = new HashMap<>();
+
+        int city = 0;
+        for (Map.Entry<String, String> entry : citiesCountryRegister.entrySet()) {
+            cityArena.append(entry.getKey());
+            cityOffsets[city + 1] = cityArena.length();
+            cityCountries[city] = countryIndex.computeIfAbsent(entry.getValue(), country -> countryIndex.size());
+            city++;
+        }
+
+        String[] countries = new String[countryIndex.size()];
+        countryIndex.forEach((country, index) -> countries[index] = country);
+
+        char[] arena = new char[cityArena.length()];
+        cityArena.getChars(0, arena.length, arena, 0);
+        return new CityDictionary(arena, cityOffsets, cityCountries, countries);
+    }
+
+    /**
+     * @return whether every city name lies within the arena, right after the previous one, and every city
+     * refers to one of the countries, so that no lookup can fail later on
+     */
+    private static boolean areCitiesConsistent(char[] cityArena, int[] cityOffsets, int[] cityCountries,
+                                               int countryCount) {
+        if (cityOffsets.length != cityCountries.length + 1 || cityOffsets[0] != 0
+                || cityOffsets[cityCountries.length] != cityArena.length) {
+            return false;
+        }
+        for (int city = 0; city < cityCountries.length; city++) {
+            if (cityOffsets[city + 1] < cityOffsets[city]
+                    || cityCountries[city] < 0 || cityCountries[city] >= countryCount) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[] readChars(ByteBuffer buffer, int length) {
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + length * Character.BYTES);
+        return chars;
+    }
+
+    static int[] readInts(ByteBuffer buffer, int length) {
+        int[] ints = new int[length];
+        buffer.asIntBuffer().get(ints);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return ints;
+    }
+
+    static long[] readLongs(ByteBuffer buffer, int length) {
+        long[] longs = new long[length];
+        buffer.asLongBuffer().get(longs);
+        buffer.position(buffer.position() + length * Long.BYTES);
+        return longs;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        out.writeInt(ints.length);
+        for (int value : ints) {
+            out.writeInt(value);
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Compiles a list of cities and countries in the CSV format into the binary format
+ * that can be loaded with CityDictionary.load().
+ * <p>
+ * Usage: CityDictionaryCompiler &lt;cities.csv&gt; &lt;compiled dictionary&gt;
+ */
+public class CityDictionaryCompiler {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CityDictionaryCompiler <cities.csv> <compiled dictionary>");
+            System.exit(1);
+        }
+
+        Path csvFile = Path.of(args[0]);
+        Path compiledDictionary = Path.of(args[1]);
+
+        CityDictionary dictionary;
+        try (Reader citiesReader = Files.newBufferedReader(csvFile)) {
+            dictionary = CityDictionary.readCsv(citiesReader);
+        }
+        dictionary.write(compiledDictionary);
+
+        System.out.println("Compiled " + dictionary.size() + " cities from " + csvFile + " into " + compiledDictionary);
+    }
+
+}
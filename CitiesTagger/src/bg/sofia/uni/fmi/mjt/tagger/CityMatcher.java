@@ -0,0 +1,268 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A case-folded trie over all city names of a CityDictionary.
+ * Matching is anchored at word starts and finds the longest city name that ends on a word boundary,
+ * so multi-word names such as "New York" or "Rio de Janeiro" are recognised as a single city.
+ * Scanning a text costs a single pass with at most (longest city name) trie steps per word start.
+ * <p>
+ * The trie is a flat node table and an open-addressing transition table, so a compiled dictionary stores
+ * both with write() and restores them with read() instead of inserting every city again.
+ */
+class CityMatcher {
+
+    static final long NO_MATCH = -1L;
+
+    private static final int ROOT = 0;
+    private static final int NO_NODE = -1;
+    private static final int NO_CITY = -1;
+    private static final long EMPTY_KEY = -1L;
+    private static final int INITIAL_TABLE_SIZE = 1 << 10;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private final CityDictionary dictionary;
+    private int[] cityAtNode;
+    private int nodeCount;
+    private int maxNameLength;
+
+    private long[] transitionKeys;
+    private int[] transitionTargets;
+    private int transitionCount;
+
+    /**
+     * Creates a new matcher recognising all cities of the dictionary. Matches report dictionary city ids.
+     *
+     * @param dictionary the cities to be matched
+     */
+    CityMatcher(CityDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.cityAtNode = new int[INITIAL_TABLE_SIZE];
+        this.transitionKeys = new long[INITIAL_TABLE_SIZE];
+        this.transitionTargets = new int[INITIAL_TABLE_SIZE];
+        Arrays.fill(cityAtNode, NO_CITY);
+        Arrays.fill(transitionKeys, EMPTY_KEY);
+        this.nodeCount = 1;
+
+        for (int city = 0; city < dictionary.size(); city++) {
+            insert(city);
+        }
+    }
+
+    private CityMatcher(CityDictionary dictionary, int[] cityAtNode, int maxNameLength,
+                        long[] transitionKeys, int[] transitionTargets, int transitionCount) {
+        this.dictionary = dictionary;
+        this.cityAtNode = cityAtNode;
+        this.nodeCount = cityAtNode.length;
+        this.maxNameLength = maxNameLength;
+        this.transitionKeys = transitionKeys;
+        this.transitionTargets = transitionTargets;
+        this.transitionCount = transitionCount;
+    }
+
+    /**
+     * Restores a matcher written by write() for the same dictionary.
+     *
+     * @param dictionary the cities the matcher was built for
+     * @param buffer     the buffer positioned at the written matcher
+     * @throws IllegalArgumentException if the tables do not describe a trie over @dictionary
+     */
+    static CityMatcher read(CityDictionary dictionary, ByteBuffer buffer) {
+        int maxNameLength = buffer.getInt();
+        int[] cityAtNode = CityDictionary.readInts(buffer, buffer.getInt());
+        int transitionCount = buffer.getInt();
+        long[] transitionKeys = CityDictionary.readLongs(buffer, buffer.getInt());
+        int[] transitionTargets = CityDictionary.readInts(buffer, transitionKeys.length);
+
+        if (cityAtNode.length == 0 || Integer.bitCount(transitionKeys.length) != 1
+                || transitionCount * 2 > transitionKeys.length) {
+            throw new IllegalArgumentException("Malformed trie tables");
+        }
+        for (int city : cityAtNode) {
+            if (city < NO_CITY || city >= dictionary.size()) {
+                throw new IllegalArgumentException("Trie node refers to unknown city " + city);
+            }
+        }
+        int transitions = 0;
+        for (int slot = 0; slot < transitionKeys.length; slot++) {
+            if (transitionKeys[slot] != EMPTY_KEY) {
+                transitions++;
+                if (transitionTargets[slot] <= ROOT || transitionTargets[slot] >= cityAtNode.length) {
+                    throw new IllegalArgumentException("Trie transition to unknown node " + transitionTargets[slot]);
+                }
+            }
+        }
+        if (transitions != transitionCount) {
+            throw new IllegalArgumentException("Malformed trie tables");
+        }
+
+        return new CityMatcher(dictionary, cityAtNode, maxNameLength,
+                transitionKeys, transitionTargets, transitionCount);
+    }
+
+    /**
+     * Writes the trie in the format read by read().
+     *
+     * @param out the stream of the compiled dictionary
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(maxNameLength);
+        out.writeInt(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            out.writeInt(cityAtNode[node]);
+        }
+        out.writeInt(transitionCount);
+        out.writeInt(transitionKeys.length);
+        for (long key : transitionKeys) {
+            out.writeLong(key);
+        }
+        for (int target : transitionTargets) {
+            out.writeInt(target);
+        }
+    }
+
+    /**
+     * Tries to match a city name starting at position @from of @text.
+     * The caller is responsible for @from being a word start. A match is only accepted if it is followed
+     * by a word boundary or by @to, which is treated as the end of the text.
+     *
+     * @param text the characters to be matched
+     * @param from the position where the candidate city name starts
+     * @param to   the end (exclusive) of the available characters
+     * @return NO_MATCH if no city starts at @from, otherwise the city id in the upper
+     * and the match length in the lower 32 bits
+     */
+    long match(char[] text, int from, int to) {
+        long match = NO_MATCH;
+        int node = ROOT;
+
+        for (int i = from; i < to; i++) {
+            node = child(node, fold(text[i]));
+            if (node == NO_NODE) {
+                break;
+            }
+            int city = cityAtNode[node];
+            if (city != NO_CITY && (i + 1 == to || isWordBoundary(text[i + 1]))) {
+                match = ((long) city << Integer.SIZE) | (i + 1 - from);
+            }
+        }
+
+        return match;
+    }
+
+    static int matchedCity(long match) {
+        return (int) (match >>> Integer.SIZE);
+    }
+
+    static int matchedLength(long match) {
+        return (int) match;
+    }
+
+    static boolean isWordBoundary(char c) {
+        return !Character.isLetterOrDigit(c);
+    }
+
+    CityDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the length of the longest city name, i.e. the lookahead a caller needs
+     * to decide whether a match is complete
+     */
+    int maxNameLength() {
+        return maxNameLength;
+    }
+
+    private void insert(int city) {
+        int length = dictionary.cityNameLength(city);
+        int node = ROOT;
+        for (int i = 0; i < length; i++) {
+            char c = fold(dictionary.cityNameCharAt(city, i));
+            int next = child(node, c);
+            if (next == NO_NODE) {
+                next = newNode();
+                putChild(node, c, next);
+            }
+            node = next;
+        }
+        if (node != ROOT) {
+            cityAtNode[node] = city;
+            maxNameLength = Math.max(maxNameLength, length);
+        }
+    }
+
+    private int newNode() {
+        if (nodeCount == cityAtNode.length) {
+            int oldLength = cityAtNode.length;
+            cityAtNode = Arrays.copyOf(cityAtNode, oldLength * 2);
+            Arrays.fill(cityAtNode, oldLength, cityAtNode.length, NO_CITY);
+        }
+        return nodeCount++;
+    }
+
+    private int child(int node, char c) {
+        long key = transitionKey(node, c);
+        int mask = transitionKeys.length - 1;
+        for (int slot = slotOf(key, mask); ; slot = (slot + 1) & mask) {
+            long current = transitionKeys[slot];
+            if (current == key) {
+                return transitionTargets[slot];
+            } else if (current == EMPTY_KEY) {
+                return NO_NODE;
+            }
+        }
+    }
+
+    private void putChild(int node, char c, int child) {
+        if ((transitionCount + 1) * 2 > transitionKeys.length) {
+            rehash(transitionKeys.length * 2);
+        }
+        long key = transitionKey(node, c);
+        int mask = transitionKeys.length - 1;
+        int slot = slotOf(key, mask);
+        while (transitionKeys[slot] != EMPTY_KEY) {
+            slot = (slot + 1) & mask;
+        }
+        transitionKeys[slot] = key;
+        transitionTargets[slot] = child;
+        transitionCount++;
+    }
+
+    private void rehash(int newSize) {
+        long[] oldKeys = transitionKeys;
+        int[] oldTargets = transitionTargets;
+        transitionKeys = new long[newSize];
+        transitionTargets = new int[newSize];
+        Arrays.fill(transitionKeys, EMPTY_KEY);
+
+        int mask = newSize - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = slotOf(oldKeys[i], mask);
+                while (transitionKeys[slot] != EMPTY_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                transitionKeys[slot] = oldKeys[i];
+                transitionTargets[slot] = oldTargets[i];
+            }
+        }
+    }
+
+    private static long transitionKey(int node, char c) {
+        return ((long) node << Character.SIZE) | c;
+    }
+
+    private static int slotOf(long key, int mask) {
+        return (int) ((key * HASH_MULTIPLIER) >>> (Long.SIZE - Integer.SIZE)) & mask;
+    }
+
+    private static char fold(char c) {
+        return CityDictionary.foldCase(c);
+    }
+
+}
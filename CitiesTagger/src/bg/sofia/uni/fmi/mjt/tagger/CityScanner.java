@@ -0,0 +1,119 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+
+/**
+ * Scans a text in consecutive chunks, reports untouched spans and matched cities to a TagHandler
+ * and records the matched cities in TagStatistics. A scanner keeps the state of a single tagging run and is not thread-safe.
+ * <p>
+ * The scanner also counts the work it does for TaggingMetrics. Time is taken once per chunk, and the time spent
+ * in the handler is estimated from one in every 16 matches, so that neither the per-character loop
+ * nor most matches pay for clock reads.
+ */
+class CityScanner {
+
+    private static final int TIMING_SAMPLE_SHIFT = 4;
+    private static final int TIMING_SAMPLE_MASK = (1 << TIMING_SAMPLE_SHIFT) - 1;
+
+    private final CityMatcher cityMatcher;
+    private final TagHandler handler;
+    private final TagStatistics statistics;
+    private boolean wordStart;
+    private long position;
+
+    private long lines;
+    private long probes;
+    private long matches;
+    private long scanNanos;
+    private long outputNanos;
+
+    CityScanner(CityMatcher cityMatcher, TagHandler handler, TagStatistics statistics) {
+        this.cityMatcher = cityMatcher;
+        this.handler = handler;
+        this.statistics = statistics;
+        this.wordStart = true;
+    }
+
+    /**
+     * Scans the next chunk of the text. Unless @endOfInput is set, the scanner stops before the
+     * last (longest city name) characters, because a city starting there may continue in the next chunk.
+     * The caller must present the unconsumed characters again, followed by the rest of the text.
+     *
+     * @param text       the buffer holding the chunk
+     * @param offset     the start of the chunk in @text
+     * @param length     the length of the chunk
+     * @param endOfInput whether the chunk is the last one of the text
+     * @return the number of characters consumed from the chunk
+     */
+    int scan(char[] text, int offset, int length, boolean endOfInput) throws IOException {
+        long scanStart = System.nanoTime();
+        int end = offset + length;
+        int decidableEnd = endOfInput ? end : end - cityMatcher.maxNameLength();
+
+        int copiedUpTo = offset;
+        int i = offset;
+        while (i < decidableEnd) {
+            if (wordStart) {
+                probes++;
+                long match = cityMatcher.match(text, i, end);
+                if (match != CityMatcher.NO_MATCH) {
+                    int city = CityMatcher.matchedCity(match);
+                    int matchLength = CityMatcher.matchedLength(match);
+
+                    if ((matches++ & TIMING_SAMPLE_MASK) == 0) {
+                        long outputStart = System.nanoTime();
+                        handler.text(text, copiedUpTo, i - copiedUpTo);
+                        handler.city(city, text, i, matchLength, position + (i - offset));
+                        outputNanos += (System.nanoTime() - outputStart) << TIMING_SAMPLE_SHIFT;
+                    } else {
+                        handler.text(text, copiedUpTo, i - copiedUpTo);
+                        handler.city(city, text, i, matchLength, position + (i - offset));
+                    }
+                    statistics.increment(city);
+
+                    i += matchLength;
+                    copiedUpTo = i;
+                    wordStart = false;
+                    continue;
+                }
+            }
+            char c = text[i];
+            if (c == '\n') {
+                lines++;
+            }
+            wordStart = CityMatcher.isWordBoundary(c);
+            i++;
+        }
+        long outputStart = System.nanoTime();
+        handler.text(text, copiedUpTo, i - copiedUpTo);
+        long scanEnd = System.nanoTime();
+        outputNanos += scanEnd - outputStart;
+        scanNanos += scanEnd - scanStart;
+
+        position += i - offset;
+        return i - offset;
+    }
+
+    /**
+     * @return the minimal chunk length that lets the scanner make progress before the end of input
+     */
+    int minimalChunkLength() {
+        return cityMatcher.maxNameLength() + 1;
+    }
+
+    TagStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @param inputNanos   the time the caller spent reading the text
+     * @param elapsedNanos the wall-clock time of the whole run
+     * @return the work done by the scanner so far
+     */
+    TaggingMetrics getMetrics(long inputNanos, long elapsedNanos) {
+        long sampledOutputNanos = Math.min(outputNanos, scanNanos);
+        return new TaggingMetrics(position, lines, probes, matches, inputNanos,
+                scanNanos - sampledOutputNanos, sampledOutputNanos, elapsedNanos);
+    }
+
+}
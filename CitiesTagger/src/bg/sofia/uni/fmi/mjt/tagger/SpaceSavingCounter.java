@@ -0,0 +1,294 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Approximates the most tagged cities of an unbounded stream with the Space-Saving algorithm
+ * in a fixed number of counters, regardless of the length of the stream.
+ * <p>
+ * With k counters and a total recorded weight of N, every reported weight overestimates the true weight
+ * of its city by at most N / k, and every city whose true weight exceeds N / k is guaranteed to be reported.
+ * <p>
+ * Optionally tags decay exponentially with a given half-life, so the ranking follows recent tags.
+ * Decay is applied forward: a tag recorded at time t weighs 2^((t - landmark) / halfLife), and all weights
+ * are rescaled to a new landmark before they overflow, so an update stays O(log k).
+ */
+class SpaceSavingCounter implements TagStatistics {
+
+    private static final int NO_CITY = -1;
+    private static final double MAX_WEIGHT = 1e150;
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    private final int capacity;
+    private final double halfLifeNanos;
+    private final LongSupplier nanoClock;
+
+    // a min-heap of counters ordered by weight
+    private final int[] heapCities;
+    private final double[] heapWeights;
+    private int size;
+
+    // an open-addressing index from city id to heap position
+    private final int[] indexCities;
+    private final int[] indexPositions;
+
+    private long landmarkNanos;
+    private long total;
+
+    /**
+     * @param capacity      the number of counters
+     * @param halfLifeNanos the half-life of a tag in nanoseconds or 0 if tags never decay
+     * @param nanoClock     the source of the current time in nanoseconds
+     */
+    SpaceSavingCounter(int capacity, long halfLifeNanos, LongSupplier nanoClock) {
+        if (capacity <= 0 || halfLifeNanos < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.halfLifeNanos = halfLifeNanos;
+        this.nanoClock = nanoClock;
+        this.heapCities = new int[capacity];
+        this.heapWeights = new double[capacity];
+        this.indexCities = new int[Integer.highestOneBit(capacity) * 4];
+        this.indexPositions = new int[indexCities.length];
+        Arrays.fill(indexCities, NO_CITY);
+        this.landmarkNanos = nanoClock.getAsLong();
+    }
+
+    private SpaceSavingCounter(SpaceSavingCounter original) {
+        this.capacity = original.capacity;
+        this.halfLifeNanos = original.halfLifeNanos;
+        this.nanoClock = original.nanoClock;
+        this.heapCities = original.heapCities.clone();
+        this.heapWeights = original.heapWeights.clone();
+        this.size = original.size;
+        this.indexCities = original.indexCities.clone();
+        this.indexPositions = original.indexPositions.clone();
+        this.landmarkNanos = original.landmarkNanos;
+        this.total = original.total;
+    }
+
+    @Override
+    public void increment(int city) {
+        add(city, 1);
+    }
+
+    @Override
+    public void add(int city, int count) {
+        total += count;
+        double weight = count * currentWeight();
+
+        int slot = indexSlotOf(city);
+        if (indexCities[slot] != NO_CITY) {
+            int position = indexPositions[slot];
+            heapWeights[position] += weight;
+            siftDown(position);
+        } else if (size < capacity) {
+            indexCities[slot] = city;
+            heapCities[size] = city;
+            heapWeights[size] = weight;
+            indexPositions[slot] = size;
+            siftUp(size++);
+        } else {
+            // the least weighted city is evicted and the new one inherits its weight as the error bound
+            removeFromIndex(heapCities[0]);
+            slot = indexSlotOf(city);
+            indexCities[slot] = city;
+            indexPositions[slot] = 0;
+            heapCities[0] = city;
+            heapWeights[0] += weight;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Records the estimated counts of all monitored cities in @target. With decay, a count is the
+     * decayed weight of the city as of now.
+     */
+    @Override
+    public void addTo(TagStatistics target) {
+        double currentWeight = currentWeight();
+        for (int i = 0; i < size; i++) {
+            target.add(heapCities[i], (int) Math.round(heapWeights[i] / currentWeight));
+        }
+    }
+
+    @Override
+    public SpaceSavingCounter copy() {
+        return new SpaceSavingCounter(this);
+    }
+
+    @Override
+    public long total() {
+        return total;
+    }
+
+    @Override
+    public int[] cities() {
+        return Arrays.copyOf(heapCities, size);
+    }
+
+    /**
+     * Selects the @n highest weighted cities with a bounded heap in O(k log n), ties broken by ascending city id.
+     *
+     * @param n the maximum number of cities to return
+     * @return the ids of the highest ranked cities, best first
+     */
+    @Override
+    public int[] mostFrequent(int n) {
+        n = Math.max(0, Math.min(n, size));
+        // a min-heap of counter positions whose root is the lowest ranked of the best n seen so far
+        int[] ranking = new int[n];
+        int rankingSize = 0;
+
+        for (int position = 0; position < size && n > 0; position++) {
+            if (rankingSize < n) {
+                ranking[rankingSize] = position;
+                siftUpRanking(ranking, rankingSize++);
+            } else if (ranksBefore(position, ranking[0])) {
+                ranking[0] = position;
+                siftDownRanking(ranking, rankingSize);
+            }
+        }
+
+        int[] result = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = heapCities[ranking[0]];
+            ranking[0] = ranking[--rankingSize];
+            siftDownRanking(ranking, rankingSize);
+        }
+        return result;
+    }
+
+    private boolean ranksBefore(int position, int otherPosition) {
+        if (heapWeights[position] != heapWeights[otherPosition]) {
+            return heapWeights[position] > heapWeights[otherPosition];
+        }
+        return heapCities[position] < heapCities[otherPosition];
+    }
+
+    private void siftUpRanking(int[] ranking, int index) {
+        int position = ranking[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!ranksBefore(ranking[parent], position)) {
+                break;
+            }
+            ranking[index] = ranking[parent];
+            index = parent;
+        }
+        ranking[index] = position;
+    }
+
+    private void siftDownRanking(int[] ranking, int rankingSize) {
+        if (rankingSize == 0) {
+            return;
+        }
+        int position = ranking[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= rankingSize) {
+                break;
+            }
+            if (child + 1 < rankingSize && ranksBefore(ranking[child], ranking[child + 1])) {
+                child++;
+            }
+            if (!ranksBefore(position, ranking[child])) {
+                break;
+            }
+            ranking[index] = ranking[child];
+            index = child;
+        }
+        ranking[index] = position;
+    }
+
+    private double currentWeight() {
+        if (halfLifeNanos == 0) {
+            return 1;
+        }
+        double weight = Math.pow(2, (nanoClock.getAsLong() - landmarkNanos) / halfLifeNanos);
+        if (weight > MAX_WEIGHT) {
+            rescale();
+            weight = 1;
+        }
+        return weight;
+    }
+
+    private void rescale() {
+        long now = nanoClock.getAsLong();
+        double factor = Math.pow(2, (now - landmarkNanos) / halfLifeNanos);
+        for (int i = 0; i < size; i++) {
+            heapWeights[i] /= factor;
+        }
+        landmarkNanos = now;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heapWeights[parent] <= heapWeights[position]) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && heapWeights[child + 1] < heapWeights[child]) {
+                child++;
+            }
+            if (heapWeights[position] <= heapWeights[child]) {
+                return;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    private void swap(int first, int second) {
+        int city = heapCities[first];
+        double weight = heapWeights[first];
+        heapCities[first] = heapCities[second];
+        heapWeights[first] = heapWeights[second];
+        heapCities[second] = city;
+        heapWeights[second] = weight;
+        indexPositions[indexSlotOf(heapCities[first])] = first;
+        indexPositions[indexSlotOf(heapCities[second])] = second;
+    }
+
+    private int indexSlotOf(int city) {
+        int mask = indexCities.length - 1;
+        int slot = (city * HASH_MULTIPLIER >>> Short.SIZE) & mask;
+        while (indexCities[slot] != NO_CITY && indexCities[slot] != city) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeFromIndex(int city) {
+        int mask = indexCities.length - 1;
+        int slot = indexSlotOf(city);
+        indexCities[slot] = NO_CITY;
+
+        // shift back the following entries of the probe sequence, so that no lookup stops early
+        for (int next = (slot + 1) & mask; indexCities[next] != NO_CITY; next = (next + 1) & mask) {
+            int home = (indexCities[next] * HASH_MULTIPLIER >>> Short.SIZE) & mask;
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                indexCities[slot] = indexCities[next];
+                indexPositions[slot] = indexPositions[next];
+                indexCities[next] = NO_CITY;
+                slot = next;
+            }
+        }
+    }
+
+}
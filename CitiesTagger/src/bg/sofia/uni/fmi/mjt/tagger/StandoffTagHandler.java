@@ -0,0 +1,51 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Leaves the scanned text untouched and writes one standoff annotation per matched city:
+ * a line of tab-separated position, length, city and country, where position and length
+ * count chars of the original text.
+ */
+class StandoffTagHandler implements TagHandler {
+
+    private static final int MAX_LONG_DIGITS = 19;
+    private static final int RADIX = 10;
+
+    private final Writer annotations;
+    private final CityDictionary dictionary;
+    private final char[] digits;
+
+    StandoffTagHandler(Writer annotations, CityDictionary dictionary) {
+        this.annotations = annotations;
+        this.dictionary = dictionary;
+        this.digits = new char[MAX_LONG_DIGITS];
+    }
+
+    @Override
+    public void text(char[] text, int offset, int length) {
+    }
+
+    @Override
+    public void city(int city, char[] text, int offset, int length, long position) throws IOException {
+        writeNumber(position);
+        annotations.write('\t');
+        writeNumber(length);
+        annotations.write('\t');
+        annotations.write(dictionary.cityName(city));
+        annotations.write('\t');
+        annotations.write(dictionary.country(city));
+        annotations.write('\n');
+    }
+
+    private void writeNumber(long number) throws IOException {
+        int start = digits.length;
+        do {
+            digits[--start] = Character.forDigit((int) (number % RADIX), RADIX);
+            number /= RADIX;
+        } while (number > 0);
+        annotations.write(digits, start, digits.length - start);
+    }
+
+}
@@ -0,0 +1,200 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.util.Arrays;
+
+/**
+ * Counts tags per city in an open-addressing table of primitive ints keyed by dictionary city id.
+ * The table only grows with the number of distinct cities seen, so counting a short document stays cheap
+ * even for a large dictionary.
+ * <p>
+ * Cities are ranked by descending count. Ties are broken by ascending city id, which is the alphabetical order
+ * of the names in a CityDictionary, so the ranking is deterministic.
+ */
+class TagCounter implements TagStatistics {
+
+    private static final int NO_CITY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    private int[] cities;
+    private int[] counts;
+    private int distinctCities;
+    private long total;
+
+    TagCounter() {
+        this.cities = new int[INITIAL_CAPACITY];
+        this.counts = new int[INITIAL_CAPACITY];
+        Arrays.fill(cities, NO_CITY);
+    }
+
+    private TagCounter(TagCounter original) {
+        this.cities = original.cities.clone();
+        this.counts = original.counts.clone();
+        this.distinctCities = original.distinctCities;
+        this.total = original.total;
+    }
+
+    @Override
+    public void increment(int city) {
+        add(city, 1);
+    }
+
+    @Override
+    public void add(int city, int count) {
+        int slot = slotOf(city);
+        if (cities[slot] == NO_CITY) {
+            if ((distinctCities + 1) * 2 > cities.length) {
+                rehash(cities.length * 2);
+                slot = slotOf(city);
+            }
+            cities[slot] = city;
+            distinctCities++;
+        }
+        counts[slot] += count;
+        total += count;
+    }
+
+    @Override
+    public void addTo(TagStatistics target) {
+        for (int slot = 0; slot < cities.length; slot++) {
+            if (cities[slot] != NO_CITY) {
+                target.add(cities[slot], counts[slot]);
+            }
+        }
+    }
+
+    @Override
+    public TagCounter copy() {
+        return new TagCounter(this);
+    }
+
+    int count(int city) {
+        int slot = slotOf(city);
+        return cities[slot] == NO_CITY ? 0 : counts[slot];
+    }
+
+    @Override
+    public long total() {
+        return total;
+    }
+
+    int distinctCities() {
+        return distinctCities;
+    }
+
+    @Override
+    public int[] cities() {
+        int[] result = new int[distinctCities];
+        int i = 0;
+        for (int city : cities) {
+            if (city != NO_CITY) {
+                result[i++] = city;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Selects the @n highest ranked cities with a bounded heap in O(m log n) for m distinct cities.
+     *
+     * @param n the maximum number of cities to return
+     * @return the ids of the highest ranked cities, best first
+     */
+    @Override
+    public int[] mostFrequent(int n) {
+        n = Math.max(0, Math.min(n, distinctCities));
+        // a min-heap of slots whose root is the lowest ranked of the best n seen so far
+        int[] heap = new int[n];
+        int heapSize = 0;
+
+        for (int slot = 0; slot < cities.length && n > 0; slot++) {
+            if (cities[slot] == NO_CITY) {
+                continue;
+            }
+            if (heapSize < n) {
+                heap[heapSize] = slot;
+                siftUp(heap, heapSize++);
+            } else if (ranksBefore(slot, heap[0])) {
+                heap[0] = slot;
+                siftDown(heap, heapSize);
+            }
+        }
+
+        int[] result = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            result[i] = cities[heap[0]];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+        }
+        return result;
+    }
+
+    private boolean ranksBefore(int slot, int otherSlot) {
+        if (counts[slot] != counts[otherSlot]) {
+            return counts[slot] > counts[otherSlot];
+        }
+        return cities[slot] < cities[otherSlot];
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!ranksBefore(heap[parent], slot)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int slot = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && ranksBefore(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!ranksBefore(slot, heap[child])) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private int slotOf(int city) {
+        int mask = cities.length - 1;
+        int slot = (city * HASH_MULTIPLIER >>> Short.SIZE) & mask;
+        while (cities[slot] != NO_CITY && cities[slot] != city) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldCities = cities;
+        int[] oldCounts = counts;
+        cities = new int[newCapacity];
+        counts = new int[newCapacity];
+        Arrays.fill(cities, NO_CITY);
+
+        for (int slot = 0; slot < oldCities.length; slot++) {
+            if (oldCities[slot] != NO_CITY) {
+                int newSlot = slotOf(oldCities[slot]);
+                cities[newSlot] = oldCities[slot];
+                counts[newSlot] = oldCounts[slot];
+            }
+        }
+    }
+
+}
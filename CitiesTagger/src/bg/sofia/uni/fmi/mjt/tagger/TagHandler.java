@@ -0,0 +1,31 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+
+/**
+ * Receives the result of scanning a text as a sequence of untouched text spans and matched cities.
+ * The character arrays passed to a handler are reused by the caller and must not be retained.
+ */
+interface TagHandler {
+
+    /**
+     * Called for a span of text that contains no city.
+     *
+     * @param text   the buffer holding the span
+     * @param offset the start of the span in @text
+     * @param length the length of the span
+     */
+    void text(char[] text, int offset, int length) throws IOException;
+
+    /**
+     * Called for every matched city, in text order.
+     *
+     * @param city     the id of the matched city
+     * @param text     the buffer holding the original spelling of the city
+     * @param offset   the start of the city name in @text
+     * @param length   the length of the city name
+     * @param position the position of the city name in the whole text, counted in chars
+     */
+    void city(int city, char[] text, int offset, int length, long position) throws IOException;
+
+}
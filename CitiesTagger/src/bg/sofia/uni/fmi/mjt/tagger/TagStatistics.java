@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+/**
+ * Collects the tag frequencies of a tagging run, keyed by dictionary city id.
+ */
+interface TagStatistics {
+
+    /**
+     * Records one tag of @city.
+     */
+    void increment(int city);
+
+    /**
+     * Records @count tags of @city at once.
+     */
+    void add(int city, int count);
+
+    /**
+     * Records the counts of these statistics in @target, e.g. to aggregate the results of several runs.
+     */
+    void addTo(TagStatistics target);
+
+    /**
+     * @return independent statistics with the same counts, e.g. to publish the statistics of a run in progress
+     */
+    TagStatistics copy();
+
+    /**
+     * @return the exact total number of recorded tags
+     */
+    long total();
+
+    /**
+     * @return the ids of all cities the statistics keep a count for, in no particular order
+     */
+    int[] cities();
+
+    /**
+     * @param n the maximum number of cities to return
+     * @return the ids of the @n highest ranked cities, best first
+     */
+    int[] mostFrequent(int n);
+
+}
@@ -0,0 +1,61 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Selects how a Tagger keeps the tag frequencies of a tagCities() invocation.
+ */
+public class TagStatisticsMode {
+
+    private static final TagStatisticsMode EXACT = new TagStatisticsMode(TagCounter::new);
+
+    private final Supplier<TagStatistics> statisticsFactory;
+
+    private TagStatisticsMode(Supplier<TagStatistics> statisticsFactory) {
+        this.statisticsFactory = statisticsFactory;
+    }
+
+    /**
+     * Counts every tagged city exactly. Memory grows with the number of distinct tagged cities.
+     */
+    public static TagStatisticsMode exact() {
+        return EXACT;
+    }
+
+    /**
+     * Approximates the most tagged cities in a fixed number of counters (Space-Saving).
+     * With k counters and N tags, a reported city's count exceeds its true count by at most N / k,
+     * and every city tagged more than N / k times is reported. getAllTagsCount() stays exact, while
+     * getAllTaggedCities() returns only the at most k cities currently monitored.
+     *
+     * @param counters the number of counters k
+     * @throws IllegalArgumentException if @counters is not positive
+     */
+    public static TagStatisticsMode heavyHitters(int counters) {
+        return heavyHitters(counters, Duration.ZERO);
+    }
+
+    /**
+     * Like heavyHitters(int), but the weight of every tag halves each @halfLife, so getNMostTaggedCities()
+     * ranks cities by their recent frequency in a long-running stream. The error bound applies to the decayed
+     * weights, where N is the decayed total. The ranking of a stream that is still being tagged can be followed
+     * with TaggingReader.getResultSoFar().
+     *
+     * @param counters the number of counters k
+     * @param halfLife the time after which a tag counts half, or Duration.ZERO for no decay
+     * @throws IllegalArgumentException if @counters is not positive or @halfLife is negative
+     */
+    public static TagStatisticsMode heavyHitters(int counters, Duration halfLife) {
+        if (counters <= 0 || halfLife == null || halfLife.isNegative()) {
+            throw new IllegalArgumentException();
+        }
+        long halfLifeNanos = halfLife.toNanos();
+        return new TagStatisticsMode(() -> new SpaceSavingCounter(counters, halfLifeNanos, System::nanoTime));
+    }
+
+    TagStatistics newStatistics() {
+        return statisticsFactory.get();
+    }
+
+}
@@ -1,183 +1,525 @@
 package bg.sofia.uni.fmi.mjt.tagger;
 
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.List;
-import java.util.LinkedList;
-import java.util.Set;
-import java.util.LinkedHashSet;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-
-
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Tags the cities of a dictionary in texts. A Tagger is thread-safe: the dictionary is immutable and every
+ * tagCities() invocation keeps its statistics in its own TaggingResult, so a single instance can serve
+ * any number of concurrent requests.
+ * <p>
+ * The dictionary can be replaced while the Tagger is in use. Every invocation reads the current dictionary
+ * once when it starts and uses it until it completes, so in-flight invocations finish on the old version
+ * and later ones see the new one, without any locking while matching.
+ * <p>
+ * Every result carries the TaggingMetrics of its run. The Tagger adds them up in its TaggerMetrics,
+ * which can be registered as a JMX MXBean, and passes every result to its TaggingListeners.
+ */
 public class Tagger {
 
-    private final Map<String, String> citiesCountryRegister;
-    private Map<String, Integer> tagCount;
-    private long totalTagCount;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final long MAPPED_REGION_SIZE = 1L << 28;
+
+    private volatile CityMatcher cityMatcher;
+    private final AtomicLong requestedVersion = new AtomicLong();
+    private long publishedVersion;
+    private final TagStatisticsMode statisticsMode;
+    private final TaggerMetrics metrics;
+    private final List<TaggingListener> listeners;
+    private volatile TaggingResult lastResult;
 
     /**
      * Creates a new instance of Tagger for a given list of city/country pairs
      *
      * @param citiesReader a java.io.Reader input stream containing list of cities and countries
      *                     in the specified CSV format
+     * @throws IllegalArgumentException if a line of the list is not a city/country pair
+     * @throws java.io.UncheckedIOException if reading the list fails
      */
     public Tagger(Reader citiesReader) {
-        this.citiesCountryRegister = createCitiesCountryRegister(citiesReader);
-        this.tagCount = new HashMap<String, Integer>();
-        this.totalTagCount = 0;
+        this(CityDictionary.readCsv(citiesReader));
+    }
+
+    /**
+     * Creates a new instance of Tagger for a dictionary of cities, e.g. one loaded
+     * from its compiled form with CityDictionary.load()
+     *
+     * @param dictionary the cities to be tagged
+     */
+    public Tagger(CityDictionary dictionary) {
+        this(dictionary, TagStatisticsMode.exact());
+    }
+
+    /**
+     * Creates a new instance of Tagger for a dictionary of cities that keeps the statistics
+     * of every tagCities() invocation in the given mode
+     *
+     * @param dictionary     the cities to be tagged
+     * @param statisticsMode how tag frequencies are counted, e.g. approximately for unbounded streams
+     */
+    public Tagger(CityDictionary dictionary, TagStatisticsMode statisticsMode) {
+        this.cityMatcher = dictionary.matcher();
+        this.statisticsMode = statisticsMode;
+        this.metrics = new TaggerMetrics();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.lastResult = TaggingResult.empty();
 
     }
 
+    /**
+     * @return the dictionary used by invocations starting now
+     */
+    public CityDictionary getDictionary() {
+        return cityMatcher.dictionary();
+    }
+
+    /**
+     * @return the cumulative metrics of all completed runs of this Tagger
+     */
+    public TaggerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers a listener that receives the result of every run completed from now on.
+     *
+     * @param listener the listener to be called
+     */
+    public void addListener(TaggingListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException();
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener registered with addListener()
+     */
+    public void removeListener(TaggingListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replaces the dictionary of the Tagger. Unless it was loaded with @dictionary, the matcher is built by
+     * the calling thread. It is then published atomically: invocations already running complete with
+     * the previous dictionary and every invocation starting afterwards uses the new one. The results
+     * of earlier invocations keep referring to the dictionary they were tagged with.
+     * <p>
+     * Reloads take effect in the order they were requested: if a reload requested later has already been
+     * published when this one is ready, this one is dropped instead of replacing the newer dictionary.
+     *
+     * @param dictionary the cities to be tagged from now on
+     */
+    public void reloadDictionary(CityDictionary dictionary) {
+        if (dictionary == null) {
+            throw new IllegalArgumentException();
+        }
+        long version = requestedVersion.incrementAndGet();
+        publish(dictionary.matcher(), version);
+    }
+
+    /**
+     * Loads a compiled dictionary together with its matcher on @executor, then publishes it
+     * as reloadDictionary() does. Tagging continues with the current dictionary in the meantime.
+     * The reload is ordered by the time of this call, so a slow load never replaces a dictionary
+     * whose reload was requested after it.
+     *
+     * @param compiledDictionary the path of a dictionary written by CityDictionary.write()
+     * @param executor           the executor doing the loading
+     * @return a future completed with the dictionary in use once the reload is done: the new one, or the one
+     * of a later reload that was published first. It is completed exceptionally with the
+     * java.io.UncheckedIOException if the dictionary could not be loaded, in which case the current one is kept
+     */
+    public CompletableFuture<CityDictionary> reloadDictionaryAsync(Path compiledDictionary, Executor executor) {
+        long version = requestedVersion.incrementAndGet();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return publish(CityDictionary.load(compiledDictionary).matcher(), version).dictionary();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Publishes @matcher unless a reload requested after it has already been published.
+     *
+     * @return the matcher in use afterwards
+     */
+    private synchronized CityMatcher publish(CityMatcher matcher, long version) {
+        if (version > publishedVersion) {
+            publishedVersion = version;
+            cityMatcher = matcher;
+        }
+        return cityMatcher;
+    }
+
     /**
      * Processes an input stream of a text file, tags any cities and outputs result
      * to a text output stream.
      *
      * @param text   a java.io.Reader input stream containing text to be processed
      * @param output a java.io.Writer output stream containing the result of tagging
+     * @return the statistics of this invocation
      */
-    public void tagCities(Reader text, Writer output) throws IOException {
+    public TaggingResult tagCities(Reader text, Writer output) throws IOException {
+        return tagCities(cityMatcher, text, output);
+    }
 
-        this.tagCount = new HashMap<String, Integer>();
+    /**
+     * Processes an input stream of a text file and, instead of rewriting the text, outputs one standoff
+     * annotation per tagged city. Every annotation is a line of four tab-separated fields: the position of
+     * the city in the text and the length of its spelling there, both counted in chars, followed by the
+     * city and its country.
+     *
+     * @param text        a java.io.Reader input stream containing text to be processed
+     * @param annotations a java.io.Writer output stream receiving the annotations
+     * @return the statistics of this invocation
+     */
+    public TaggingResult annotateCities(Reader text, Writer annotations) throws IOException {
 
-        this.totalTagCount = 0;
+        long start = System.nanoTime();
+        CityMatcher matcher = cityMatcher;
+        CityScanner scanner = new CityScanner(matcher,
+                new StandoffTagHandler(annotations, matcher.dictionary()), statisticsMode.newStatistics());
+        long inputNanos = scan(scanner, text);
+        annotations.flush();
 
-        try (BufferedReader br = new BufferedReader(text)) {
-            String line;
-            boolean notFirstTime = false;
-            while ((line = br.readLine()) != null) {
+        return completeRun(matcher.dictionary(), scanner.getStatistics(),
+                scanner.getMetrics(inputNanos, System.nanoTime() - start));
+    }
 
-                String processedLine = processLine(line);
-                if (notFirstTime) {
-                    processedLine = "\n" + processedLine;
+    /**
+     * Wraps an input stream of a text file into a Reader yielding the result of tagging as it is consumed,
+     * for composing tagging into a pipeline of Readers. Once the returned Reader has reached the end
+     * of the text, its getResult() holds the statistics of the run.
+     *
+     * @param text a java.io.Reader input stream containing text to be processed
+     * @return a java.io.Reader of the tagged text
+     */
+    public TaggingReader taggingReader(Reader text) {
+        CityMatcher matcher = cityMatcher;
+        return new TaggingReader(text, matcher, statisticsMode.newStatistics(),
+                (statistics, runMetrics) -> completeRun(matcher.dictionary(), statistics, runMetrics));
+    }
+
+    /**
+     * Processes an input stream of a text file in parallel and outputs the same result as
+     * tagCities(Reader, Writer). The text is split at line boundaries into chunks which are tagged on @pool
+     * and written to @output in their original order. The statistics of all chunks are merged, so the
+     * result is the same as after a sequential run.
+     * <p>
+     * A chunk is cut only once its buffer is full or the text has ended, however few chars each read()
+     * of @text returns, and the buffers of written chunks are reused for the following ones.
+     *
+     * @param text   a java.io.Reader input stream containing text to be processed
+     * @param output a java.io.Writer output stream containing the result of tagging
+     * @param pool   the pool on which the chunks are tagged
+     * @return the statistics of this invocation
+     */
+    public TaggingResult tagCities(Reader text, Writer output, ForkJoinPool pool) throws IOException {
+
+        long start = System.nanoTime();
+        long inputNanos = 0;
+        long outputNanos = 0;
+        TaggingMetrics chunkMetrics = TaggingMetrics.NONE;
+
+        CityMatcher matcher = cityMatcher;
+        TagStatistics mergedStatistics = statisticsMode.newStatistics();
+        Deque<ForkJoinTask<ChunkTagger>> pendingChunks = new ArrayDeque<>();
+        Deque<char[]> freeBuffers = new ArrayDeque<>();
+        int maxPendingChunks = 2 * pool.getParallelism();
+
+        try (Reader reader = text) {
+            char[] chunk = new char[CHUNK_SIZE];
+            int buffered = 0;
+            boolean endOfInput = false;
+
+            while (!endOfInput) {
+                long readStart = System.nanoTime();
+                int read = reader.read(chunk, buffered, chunk.length - buffered);
+                inputNanos += System.nanoTime() - readStart;
+                if (read == -1) {
+                    endOfInput = true;
+                } else {
+                    buffered += read;
+                }
+                if (!endOfInput && buffered < chunk.length) {
+                    continue;
+                }
+
+                int chunkLength = endOfInput ? buffered : lastLineEnd(chunk, buffered);
+                if (chunkLength == 0) {
+                    if (!endOfInput) {
+                        chunk = Arrays.copyOf(chunk, 2 * chunk.length);
+                    }
+                    continue;
+                }
+
+                int leftover = buffered - chunkLength;
+                char[] nextChunk = freeBuffers.isEmpty() ? null : freeBuffers.removeFirst();
+                if (nextChunk == null || nextChunk.length < 2 * leftover) {
+                    nextChunk = new char[Math.max(CHUNK_SIZE, 2 * leftover)];
                 }
-                output.write(processedLine);
-                notFirstTime = true;
+                System.arraycopy(chunk, chunkLength, nextChunk, 0, leftover);
+                pendingChunks.addLast(pool.submit(
+                        new ChunkTagger(chunk, chunkLength, matcher)));
+                chunk = nextChunk;
+                buffered = leftover;
+
+                if (pendingChunks.size() > maxPendingChunks) {
+                    ChunkTagger tagged = awaitChunk(pendingChunks.removeFirst());
+                    outputNanos += writeChunk(tagged, output, mergedStatistics);
+                    chunkMetrics = chunkMetrics.plus(tagged.getMetrics());
+                    freeBuffers.addLast(tagged.getChunk());
+                }
+            }
+            while (!pendingChunks.isEmpty()) {
+                ChunkTagger tagged = awaitChunk(pendingChunks.removeFirst());
+                outputNanos += writeChunk(tagged, output, mergedStatistics);
+                chunkMetrics = chunkMetrics.plus(tagged.getMetrics());
             }
+            long flushStart = System.nanoTime();
             output.flush();
+            outputNanos += System.nanoTime() - flushStart;
+
+        } finally {
+            pendingChunks.forEach(pending -> pending.cancel(true));
+        }
+
+        TaggingMetrics ownMetrics = new TaggingMetrics(0, 0, 0, 0, inputNanos, 0, outputNanos,
+                System.nanoTime() - start);
+        return completeRun(matcher.dictionary(), mergedStatistics, chunkMetrics.plus(ownMetrics));
+    }
+
+    /**
+     * Processes a text file and writes the result of tagging to another file, both encoded in UTF-8.
+     * The input is memory-mapped and decoded directly from the mapping, and the output is encoded
+     * into a direct buffer and written to a file channel, bypassing the Reader and Writer layers.
+     *
+     * @param input  the path of the text file to be processed
+     * @param output the path of the file that will contain the result of tagging.
+     *               It is created or truncated if it already exists
+     * @return the statistics of this invocation
+     */
+    public TaggingResult tagCities(Path input, Path output) throws IOException {
+
+        long start = System.nanoTime();
+        long inputNanos = 0;
+        CityMatcher matcher = cityMatcher;
+        CityScanner scanner;
+        try (FileChannel inputChannel = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel outputChannel = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ChannelTagHandler handler = new ChannelTagHandler(outputChannel, StandardCharsets.UTF_8,
+                    matcher.dictionary());
+            scanner = new CityScanner(matcher, handler, statisticsMode.newStatistics());
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            CharBuffer chars = CharBuffer.allocate(Math.max(BUFFER_SIZE, 2 * scanner.minimalChunkLength()));
+
+            long size = inputChannel.size();
+            long position = 0;
+            do {
+                long regionLength = Math.min(MAPPED_REGION_SIZE, size - position);
+                boolean lastRegion = position + regionLength == size;
+                MappedByteBuffer region = inputChannel.map(FileChannel.MapMode.READ_ONLY, position, regionLength);
+
+                CoderResult result;
+                do {
+                    long decodeStart = System.nanoTime();
+                    result = decoder.decode(region, chars, lastRegion);
+                    inputNanos += System.nanoTime() - decodeStart;
+                    if (result.isError()) {
+                        result.throwException();
+                    }
+                    scan(scanner, chars, false);
+                } while (result.isOverflow());
 
+                position += region.position();
+            } while (position < size);
+
+            while (decoder.flush(chars).isOverflow()) {
+                scan(scanner, chars, false);
+            }
+            scan(scanner, chars, true);
+            handler.flush();
         }
+
+        return completeRun(matcher.dictionary(), scanner.getStatistics(),
+                scanner.getMetrics(inputNanos, System.nanoTime() - start));
     }
 
     /**
      * Returns a collection the top @n most tagged cities' unique names
-     * from the last tagCities() invocation. Note that if a particular city has been tagged
+     * from the last completed tagCities() invocation. Note that if a particular city has been tagged
      * more than once in the text, just one occurrence of its name should appear in the result.
      * If @n exceeds the total number of cities tagged, return as many as available
      * If tagCities() has not been invoked at all, return an empty collection.
+     * When the Tagger is shared between threads, prefer the TaggingResult returned by tagCities().
      *
      * @param n the maximum number of top tagged cities to return
      * @return a collection the top @n most tagged cities' unique names
-     * from the last tagCities() invocation.
+     * from the last completed tagCities() invocation.
      */
     public Collection<String> getNMostTaggedCities(int n) {
-
-
-        List<String> mostTaggedCities = new LinkedList<String>(tagCount.keySet());
-        n = Math.min(n, mostTaggedCities.size());
-        mostTaggedCities.sort(new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-                return tagCount.get(o2).compareTo(tagCount.get(o1));
-            }
-        });
-
-        return mostTaggedCities.subList(0, n);
+        return lastResult.getNMostTaggedCities(n);
     }
 
     /**
      * Returns a collection of all tagged cities' unique names
-     * from the last tagCities() invocation. Note that if a particular city has been tagged
+     * from the last completed tagCities() invocation. Note that if a particular city has been tagged
      * more than once in the text, just one occurrence of its name should appear in the result.
      * If tagCities() has not been invoked at all, return an empty collection.
      *
      * @return a collection of all tagged cities' unique names
-     * from the last tagCities() invocation.
+     * from the last completed tagCities() invocation.
      */
     public Collection<String> getAllTaggedCities() {
-        return tagCount.keySet();
+        return lastResult.getAllTaggedCities();
     }
 
     /**
      * Returns the total number of tagged cities in the input text
-     * from the last tagCities() invocation
+     * from the last completed tagCities() invocation
      * In case a particular city has been taged in several occurences, all must be counted.
      * If tagCities() has not been invoked at all, return 0.
      *
      * @return the total number of tagged cities in the input text
      */
     public long getAllTagsCount() {
-        return totalTagCount;
+        return lastResult.getAllTagsCount();
     }
 
-    private Map<String, String> createCitiesCountryRegister(Reader citiesReader) {
+    CityMatcher currentMatcher() {
+        return cityMatcher;
+    }
 
-        Map<String, String> citiesCountryRegister = new HashMap<String, String>();
-        try (BufferedReader br = new BufferedReader(citiesReader)) {
-            String line;
+    TagStatistics newStatistics() {
+        return statisticsMode.newStatistics();
+    }
 
-            while ((line = br.readLine()) != null) {
-                String[] entry = line.split(",");
-                citiesCountryRegister.put(entry[0], entry[1]);
-            }
+    /**
+     * Tags like tagCities(Reader, Writer), but with the given version of the dictionary.
+     */
+    TaggingResult tagCities(CityMatcher matcher, Reader text, Writer output) throws IOException {
 
+        long start = System.nanoTime();
+        CityScanner scanner = new CityScanner(matcher, new WriterTagHandler(output, matcher.dictionary()),
+                statisticsMode.newStatistics());
+        long inputNanos = scan(scanner, text);
+        output.flush();
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return citiesCountryRegister;
+        return completeRun(matcher.dictionary(), scanner.getStatistics(),
+                scanner.getMetrics(inputNanos, System.nanoTime() - start));
     }
 
-    private String processLine(String line) {
-        if (line == null) {
-            throw new IllegalArgumentException();
+    private TaggingResult completeRun(CityDictionary dictionary, TagStatistics statistics,
+                                      TaggingMetrics runMetrics) {
+        TaggingResult result = new TaggingResult(dictionary, statistics, runMetrics);
+        lastResult = result;
+        metrics.record(runMetrics);
+        for (TaggingListener listener : listeners) {
+            listener.taggingCompleted(result);
         }
-        List<String> wordCollection = new LinkedList<String>(Arrays.asList(line.split(" |-|:|;|,|'|\\?|!|\\.")));
-
-        Set<String> citySet = new LinkedHashSet<String>();
-
-        for (String originalWord : wordCollection) {
-            if (originalWord.length() > 0) {
-                String modifiedWord = convertToProperCase(originalWord);
-                if (citiesCountryRegister.containsKey(modifiedWord)) {
-                    totalTagCount++;
-                    if (tagCount.containsKey(modifiedWord)) {
-                        Integer count = tagCount.get(modifiedWord);
-                        tagCount.replace(modifiedWord, count, count + 1);
-                    } else {
-                        tagCount.put(modifiedWord, 1);
-                    }
-                    line = line.replaceAll(originalWord, modifiedWord);
-                    citySet.add(modifiedWord);
+        return result;
+    }
+
+    /**
+     * @return the time spent reading @text, in nanoseconds
+     */
+    private static long scan(CityScanner scanner, Reader text) throws IOException {
+        try (Reader reader = text) {
+            char[] buffer = new char[Math.max(BUFFER_SIZE, 2 * scanner.minimalChunkLength())];
+            int buffered = 0;
+            boolean endOfInput = false;
+            long inputNanos = 0;
+
+            while (!endOfInput) {
+                long readStart = System.nanoTime();
+                int read = reader.read(buffer, buffered, buffer.length - buffered);
+                inputNanos += System.nanoTime() - readStart;
+                if (read == -1) {
+                    endOfInput = true;
+                } else {
+                    buffered += read;
                 }
-            }
 
+                int consumed = scanner.scan(buffer, 0, buffered, endOfInput);
+                buffered -= consumed;
+                System.arraycopy(buffer, consumed, buffer, 0, buffered);
+            }
+            return inputNanos;
         }
+    }
 
-        for (String cityName : citySet) {
-            String countryName = citiesCountryRegister.get(cityName);
-
-            String tag = "<city country=\"" + countryName + "\">" + cityName + "</city>";
-
-            line = line.replaceAll(cityName, tag);
+    private static void scan(CityScanner scanner, CharBuffer chars, boolean endOfInput) throws IOException {
+        chars.flip();
+        int consumed = scanner.scan(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining(),
+                endOfInput);
+        chars.position(chars.position() + consumed);
+        chars.compact();
+    }
 
+    private static int lastLineEnd(char[] text, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (text[i] == '\n') {
+                return i + 1;
+            }
         }
+        return 0;
+    }
 
-        return line;
+    /**
+     * @return the time spent writing the chunk, in nanoseconds
+     */
+    private static long writeChunk(ChunkTagger tagged, Writer output,
+                                   TagStatistics mergedStatistics) throws IOException {
+        long writeStart = System.nanoTime();
+        tagged.writeTo(output);
+        long writeNanos = System.nanoTime() - writeStart;
+        tagged.addTo(mergedStatistics);
+        return writeNanos;
     }
 
-    private static String convertToProperCase(String word) {
-        if (word == null) {
-            throw new IllegalArgumentException();
+    private static ChunkTagger awaitChunk(ForkJoinTask<ChunkTagger> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while tagging in parallel");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Tagging of a chunk failed", e.getCause());
         }
-
-        return word.substring(0, 1).toUpperCase() + word.substring(1).toLowerCase();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of all runs of a Tagger since its creation. Runs record their metrics concurrently without locking,
+ * and the latency of a run, e.g. of one document tagged by a BatchTagger, is kept in a histogram
+ * for percentiles.
+ */
+public class TaggerMetrics implements TaggerMetricsMXBean {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double MEDIAN = 50;
+    private static final double P99 = 99;
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder charsProcessed = new LongAdder();
+    private final LongAdder linesProcessed = new LongAdder();
+    private final LongAdder dictionaryProbes = new LongAdder();
+    private final LongAdder dictionaryHits = new LongAdder();
+    private final LongAdder inputNanos = new LongAdder();
+    private final LongAdder matchingNanos = new LongAdder();
+    private final LongAdder outputNanos = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    TaggerMetrics() {
+    }
+
+    void record(TaggingMetrics metrics) {
+        runs.increment();
+        charsProcessed.add(metrics.getCharsProcessed());
+        linesProcessed.add(metrics.getLinesProcessed());
+        dictionaryProbes.add(metrics.getDictionaryProbes());
+        dictionaryHits.add(metrics.getDictionaryHits());
+        inputNanos.add(metrics.getInputNanos());
+        matchingNanos.add(metrics.getMatchingNanos());
+        outputNanos.add(metrics.getOutputNanos());
+        elapsedNanos.add(metrics.getElapsedNanos());
+        latencies.record(metrics.getElapsedNanos());
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getCharsProcessed() {
+        return charsProcessed.sum();
+    }
+
+    @Override
+    public long getLinesProcessed() {
+        return linesProcessed.sum();
+    }
+
+    @Override
+    public long getDictionaryProbes() {
+        return dictionaryProbes.sum();
+    }
+
+    @Override
+    public long getDictionaryHits() {
+        return dictionaryHits.sum();
+    }
+
+    @Override
+    public long getInputNanos() {
+        return inputNanos.sum();
+    }
+
+    @Override
+    public long getMatchingNanos() {
+        return matchingNanos.sum();
+    }
+
+    @Override
+    public long getOutputNanos() {
+        return outputNanos.sum();
+    }
+
+    /**
+     * @return the number of lines processed per second that runs have been in progress,
+     * or 0 if no run has completed
+     */
+    @Override
+    public double getLinesPerSecond() {
+        long elapsed = elapsedNanos.sum();
+        return elapsed == 0 ? 0 : linesProcessed.sum() * NANOS_PER_SECOND / elapsed;
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return getLatencyPercentileNanos(MEDIAN);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return getLatencyPercentileNanos(P99);
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100
+     * @return the elapsed time of a run at @percentile, overestimated by at most 12.5%,
+     * or 0 if no run has completed
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        return latencies.percentile(percentile);
+    }
+
+}
@@ -0,0 +1,31 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+/**
+ * The management interface of the cumulative metrics of a Tagger. Register Tagger.getMetrics()
+ * with an MBeanServer to expose them over JMX.
+ */
+public interface TaggerMetricsMXBean {
+
+    long getRuns();
+
+    long getCharsProcessed();
+
+    long getLinesProcessed();
+
+    long getDictionaryProbes();
+
+    long getDictionaryHits();
+
+    long getInputNanos();
+
+    long getMatchingNanos();
+
+    long getOutputNanos();
+
+    double getLinesPerSecond();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+}
@@ -0,0 +1,14 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+/**
+ * Receives the result of every tagging run of a Tagger, e.g. to export its metrics.
+ * Listeners are called on the thread that completed the run, so they should return quickly.
+ */
+public interface TaggingListener {
+
+    /**
+     * @param result the statistics and metrics of the completed run
+     */
+    void taggingCompleted(TaggingResult result);
+
+}
@@ -0,0 +1,128 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work done by a single tagging run. Together with the tag counts in TaggingResult, the metrics tell whether
+ * a slow run was held up reading its input, matching cities or writing its output.
+ * <p>
+ * Times are measured with System.nanoTime(). Matching and output time are summed over all threads that tagged
+ * parts of the text, so in a parallel run they may exceed the elapsed time.
+ */
+public class TaggingMetrics {
+
+    static final TaggingMetrics NONE = new TaggingMetrics(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long charsProcessed;
+    private final long linesProcessed;
+    private final long dictionaryProbes;
+    private final long dictionaryHits;
+    private final long inputNanos;
+    private final long matchingNanos;
+    private final long outputNanos;
+    private final long elapsedNanos;
+
+    TaggingMetrics(long charsProcessed, long linesProcessed, long dictionaryProbes, long dictionaryHits,
+                   long inputNanos, long matchingNanos, long outputNanos, long elapsedNanos) {
+        this.charsProcessed = charsProcessed;
+        this.linesProcessed = linesProcessed;
+        this.dictionaryProbes = dictionaryProbes;
+        this.dictionaryHits = dictionaryHits;
+        this.inputNanos = inputNanos;
+        this.matchingNanos = matchingNanos;
+        this.outputNanos = outputNanos;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return metrics summing the counts and times of this and @other
+     */
+    TaggingMetrics plus(TaggingMetrics other) {
+        return new TaggingMetrics(charsProcessed + other.charsProcessed, linesProcessed + other.linesProcessed,
+                dictionaryProbes + other.dictionaryProbes, dictionaryHits + other.dictionaryHits,
+                inputNanos + other.inputNanos, matchingNanos + other.matchingNanos,
+                outputNanos + other.outputNanos, elapsedNanos + other.elapsedNanos);
+    }
+
+    /**
+     * @return metrics with the counts and times of this, but an elapsed time of @elapsedNanos
+     */
+    TaggingMetrics withElapsedNanos(long elapsedNanos) {
+        return new TaggingMetrics(charsProcessed, linesProcessed, dictionaryProbes, dictionaryHits,
+                inputNanos, matchingNanos, outputNanos, elapsedNanos);
+    }
+
+    /**
+     * @return the number of chars of input text that have been tagged
+     */
+    public long getCharsProcessed() {
+        return charsProcessed;
+    }
+
+    /**
+     * @return the number of line feeds in the input text
+     */
+    public long getLinesProcessed() {
+        return linesProcessed;
+    }
+
+    /**
+     * @return the number of word starts at which the dictionary has been looked up
+     */
+    public long getDictionaryProbes() {
+        return dictionaryProbes;
+    }
+
+    /**
+     * @return the number of lookups that found a city, i.e. the number of tags
+     */
+    public long getDictionaryHits() {
+        return dictionaryHits;
+    }
+
+    /**
+     * @return the time spent reading the input text, in nanoseconds
+     */
+    public long getInputNanos() {
+        return inputNanos;
+    }
+
+    /**
+     * @return the time spent scanning the text for cities, in nanoseconds
+     */
+    public long getMatchingNanos() {
+        return matchingNanos;
+    }
+
+    /**
+     * @return the time spent writing the tagged text or annotations, in nanoseconds
+     */
+    public long getOutputNanos() {
+        return outputNanos;
+    }
+
+    /**
+     * @return the wall-clock time of the run, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the number of lines processed per second of elapsed time, or 0 if no time has elapsed
+     */
+    public double getLinesPerSecond() {
+        return elapsedNanos == 0 ? 0 : linesProcessed * NANOS_PER_SECOND / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "TaggingMetrics{chars=" + charsProcessed + ", lines=" + linesProcessed
+                + ", probes=" + dictionaryProbes + ", hits=" + dictionaryHits
+                + ", inputNanos=" + inputNanos + ", matchingNanos=" + matchingNanos
+                + ", outputNanos=" + outputNanos + ", elapsedNanos=" + elapsedNanos + '}';
+    }
+
+}
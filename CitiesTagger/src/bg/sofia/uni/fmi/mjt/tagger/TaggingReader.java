@@ -0,0 +1,140 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.BiFunction;
+
+/**
+ * A java.io.Reader that yields the tagged form of another Reader's text as it is consumed.
+ * Tagging happens incrementally: the source is read one buffer at a time, and a city name straddling
+ * two buffers is held back until the rest of it has been read. At most one buffer of source text
+ * and its tagged form are kept in memory, however long the text is.
+ * The elapsed time in the metrics of the result runs from the creation of the Reader to the end of the text,
+ * so it includes the time the consumer spends between reads.
+ * <p>
+ * While an unbounded stream is being read, getResultSoFar() follows its statistics, e.g. the most tagged cities
+ * of a TagStatisticsMode.heavyHitters() mode with decay.
+ * <p>
+ * Instances are created by Tagger.taggingReader() and, like any Reader, are not thread-safe.
+ */
+public class TaggingReader extends Reader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader source;
+    private final CityDictionary dictionary;
+    private final CityScanner scanner;
+    private final BiFunction<TagStatistics, TaggingMetrics, TaggingResult> onEndOfInput;
+    private final long start;
+    private final char[] input;
+    private final StringBuilder tagged;
+
+    private int buffered;
+    private int taggedRead;
+    private long inputNanos;
+    private TaggingResult result;
+
+    TaggingReader(Reader source, CityMatcher cityMatcher, TagStatistics statistics,
+                  BiFunction<TagStatistics, TaggingMetrics, TaggingResult> onEndOfInput) {
+        this.start = System.nanoTime();
+        this.source = source;
+        this.dictionary = cityMatcher.dictionary();
+        this.onEndOfInput = onEndOfInput;
+        this.tagged = new StringBuilder();
+        this.scanner = new CityScanner(cityMatcher, new TagHandler() {
+            @Override
+            public void text(char[] text, int offset, int length) {
+                tagged.append(text, offset, length);
+            }
+
+            @Override
+            public void city(int city, char[] text, int offset, int length, long position) throws IOException {
+                WriterTagHandler.appendTag(tagged, dictionary, city);
+            }
+        }, statistics);
+        this.input = new char[Math.max(BUFFER_SIZE, 2 * scanner.minimalChunkLength())];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > cbuf.length) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+
+        while (taggedRead == tagged.length()) {
+            if (!tagMore()) {
+                return -1;
+            }
+        }
+
+        int count = Math.min(len, tagged.length() - taggedRead);
+        tagged.getChars(taggedRead, taggedRead + count, cbuf, off);
+        taggedRead += count;
+        return count;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return taggedRead < tagged.length() || source.ready();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * @return the statistics of the tagged text
+     * @throws IllegalStateException if the text has not been read to its end yet
+     */
+    public TaggingResult getResult() {
+        if (result == null) {
+            throw new IllegalStateException("The tagged text has not been read to its end");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the statistics of the text tagged so far without waiting for the end of the text. The returned
+     * result is a copy, so it does not change as more text is read, and it is not passed to the listeners
+     * of the Tagger. After the end of the text, returns the same as getResult().
+     *
+     * @return the statistics of the text tagged so far
+     */
+    public TaggingResult getResultSoFar() {
+        if (result != null) {
+            return result;
+        }
+        return new TaggingResult(dictionary, scanner.getStatistics().copy(),
+                scanner.getMetrics(inputNanos, System.nanoTime() - start));
+    }
+
+    private boolean tagMore() throws IOException {
+        if (result != null) {
+            return false;
+        }
+        tagged.setLength(0);
+        taggedRead = 0;
+
+        long readStart = System.nanoTime();
+        int read = source.read(input, buffered, input.length - buffered);
+        inputNanos += System.nanoTime() - readStart;
+        boolean endOfInput = read == -1;
+        if (!endOfInput) {
+            buffered += read;
+        }
+
+        int consumed = scanner.scan(input, 0, buffered, endOfInput);
+        buffered -= consumed;
+        System.arraycopy(input, consumed, input, 0, buffered);
+
+        if (endOfInput) {
+            result = onEndOfInput.apply(scanner.getStatistics(),
+                    scanner.getMetrics(inputNanos, System.nanoTime() - start));
+        }
+        return true;
+    }
+
+}
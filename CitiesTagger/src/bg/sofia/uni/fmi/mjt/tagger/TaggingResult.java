@@ -0,0 +1,93 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The statistics and metrics of a single tagCities() invocation. A result is immutable once it has been returned,
+ * so it can be read from any thread while the Tagger that produced it serves other requests.
+ */
+public class TaggingResult {
+
+    private static final TaggingResult EMPTY = new TaggingResult(null, new TagCounter());
+
+    private final CityDictionary dictionary;
+    private final TagStatistics statistics;
+    private final TaggingMetrics metrics;
+
+    TaggingResult(CityDictionary dictionary, TagStatistics statistics) {
+        this(dictionary, statistics, TaggingMetrics.NONE);
+    }
+
+    TaggingResult(CityDictionary dictionary, TagStatistics statistics, TaggingMetrics metrics) {
+        this.dictionary = dictionary;
+        this.statistics = statistics;
+        this.metrics = metrics;
+    }
+
+    static TaggingResult empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Records the statistics of this result in @target, which must count cities of the same dictionary.
+     */
+    void addTo(TagStatistics target) {
+        statistics.addTo(target);
+    }
+
+    /**
+     * Returns a collection the top @n most tagged cities' unique names, most tagged first.
+     * Cities tagged equally often are ordered by name. With TagStatisticsMode.heavyHitters() the ranking
+     * is approximate within the documented error bound.
+     * If @n exceeds the total number of cities tagged, returns as many as available.
+     *
+     * @param n the maximum number of top tagged cities to return
+     * @return a collection the top @n most tagged cities' unique names
+     */
+    public Collection<String> getNMostTaggedCities(int n) {
+        int[] mostTagged = statistics.mostFrequent(n);
+
+        List<String> mostTaggedCities = new ArrayList<>(mostTagged.length);
+        for (int city : mostTagged) {
+            mostTaggedCities.add(dictionary.cityName(city));
+        }
+        return Collections.unmodifiableList(mostTaggedCities);
+    }
+
+    /**
+     * Returns a collection of all tagged cities' unique names.
+     * If a particular city has been tagged more than once, its name appears just once.
+     *
+     * @return a collection of all tagged cities' unique names
+     */
+    public Collection<String> getAllTaggedCities() {
+        Set<String> taggedCities = new HashSet<>();
+        for (int city : statistics.cities()) {
+            taggedCities.add(dictionary.cityName(city));
+        }
+        return Collections.unmodifiableSet(taggedCities);
+    }
+
+    /**
+     * Returns the total number of tagged cities in the input text.
+     * In case a particular city has been tagged in several occurrences, all are counted.
+     *
+     * @return the total number of tagged cities in the input text
+     */
+    public long getAllTagsCount() {
+        return statistics.total();
+    }
+
+    /**
+     * @return the work done and the time taken by the invocation
+     */
+    public TaggingMetrics getMetrics() {
+        return metrics;
+    }
+
+}
@@ -0,0 +1,50 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the scanned text to a java.io.Writer, wrapping every city in a city tag.
+ */
+class WriterTagHandler implements TagHandler {
+
+    private static final String OPENING_TAG_START = "<city country=\"";
+    private static final String OPENING_TAG_END = "\">";
+    private static final String CLOSING_TAG = "</city>";
+
+    private final Writer output;
+    private final CityDictionary dictionary;
+
+    WriterTagHandler(Writer output, CityDictionary dictionary) {
+        this.output = output;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public void text(char[] text, int offset, int length) throws IOException {
+        if (length > 0) {
+            output.write(text, offset, length);
+        }
+    }
+
+    @Override
+    public void city(int city, char[] text, int offset, int length, long position) throws IOException {
+        appendTag(output, dictionary, city);
+    }
+
+    /**
+     * Appends the city tag of a city, the one format shared by all handlers that tag cities inline.
+     *
+     * @param output     the destination of the tag
+     * @param dictionary the dictionary of the city
+     * @param city       the id of the city
+     */
+    static void appendTag(Appendable output, CityDictionary dictionary, int city) throws IOException {
+        output.append(OPENING_TAG_START)
+                .append(dictionary.country(city))
+                .append(OPENING_TAG_END)
+                .append(dictionary.cityName(city))
+                .append(CLOSING_TAG);
+    }
+
+}
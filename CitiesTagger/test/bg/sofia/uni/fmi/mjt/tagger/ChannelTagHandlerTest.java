@@ -0,0 +1,57 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelTagHandlerTest {
+
+    private final CityDictionary dictionary = CityDictionary.readCsv(new StringReader("Sofia,Bulgaria"));
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final ChannelTagHandler handler = new ChannelTagHandler(Channels.newChannel(output),
+            StandardCharsets.UTF_8, dictionary);
+
+    @Test
+    public void testSurrogatePairSplitBetweenSpans() throws IOException {
+        text("smile \uD83D");
+        text("\uDE00 in ");
+        city("Sofia");
+        text("\uD83D");
+        text("\uDE00");
+        handler.flush();
+
+        assertEquals("smile \uD83D\uDE00 in <city country=\"Bulgaria\">Sofia</city>\uD83D\uDE00",
+                output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = MalformedInputException.class)
+    public void testLoneHighSurrogateBeforeCity() throws IOException {
+        text("broken \uD83D");
+        city("Sofia");
+        text(" and more text");
+        handler.flush();
+    }
+
+    @Test(expected = MalformedInputException.class)
+    public void testLoneHighSurrogateBeforeText() throws IOException {
+        text("broken \uD83D");
+        text(" and more text");
+        handler.flush();
+    }
+
+    private void text(String text) throws IOException {
+        handler.text(text.toCharArray(), 0, text.length());
+    }
+
+    private void city(String cityName) throws IOException {
+        handler.city(dictionary.indexOf(cityName), cityName.toCharArray(), 0, cityName.length(), 0);
+    }
+
+}
@@ -0,0 +1,156 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CityDictionaryTest {
+
+    private static final Path csvFilePath = Path.of("world-cities.csv");
+
+    @Test
+    public void testReadCsv() {
+        CityDictionary dictionary = CityDictionary.readCsv(
+                new StringReader("Sofia,Bulgaria\nPlovdiv,Bulgaria\nBerlin,Germany\nSofia,Bulgaria"));
+
+        assertEquals(3, dictionary.size());
+        assertEquals("Berlin", dictionary.cityName(0));
+        assertEquals("Germany", dictionary.country(0));
+        assertEquals("Bulgaria", dictionary.country(dictionary.indexOf("Sofia")));
+        assertEquals(-1, dictionary.indexOf("sofia"));
+        assertEquals(-1, dictionary.indexOf("Moscow"));
+    }
+
+    @Test
+    public void testIndexOfIgnoreCase() {
+        CityDictionary dictionary = CityDictionary.readCsv(
+                new StringReader("Sofia,Bulgaria\nNew York,United States\nBerlin,Germany"));
+        StringBuilder text = new StringBuilder("flights from NEW YORK to sofia");
+
+        int newYork = dictionary.indexOfIgnoreCase(text, 13, 21);
+        assertEquals("New York", dictionary.cityName(newYork));
+        assertEquals("United States", dictionary.country(newYork));
+        assertEquals(dictionary.indexOf("Sofia"), dictionary.indexOfIgnoreCase(text, 25, 30));
+        assertEquals(dictionary.indexOf("Berlin"), dictionary.indexOfIgnoreCase("bERLIN"));
+        assertEquals(-1, dictionary.indexOfIgnoreCase(text, 0, 7));
+        assertEquals(-1, dictionary.indexOfIgnoreCase(text, 25, 29));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadCsvMalformedLine() {
+        CityDictionary.readCsv(new StringReader("Sofia,Bulgaria\nPlovdiv"));
+    }
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        Path compiledDictionary = Files.createTempFile("cities", ".dict");
+        try {
+            CityDictionary dictionary;
+            try (Reader csvReader = Files.newBufferedReader(csvFilePath)) {
+                dictionary = CityDictionary.readCsv(csvReader);
+            }
+            dictionary.write(compiledDictionary);
+            CityDictionary loaded = CityDictionary.load(compiledDictionary);
+
+            assertEquals(dictionary.size(), loaded.size());
+            for (int city = 0; city < dictionary.size(); city++) {
+                assertEquals(dictionary.cityName(city), loaded.cityName(city));
+                assertEquals(dictionary.country(city), loaded.country(city));
+                assertEquals(city, loaded.indexOfIgnoreCase(loaded.cityName(city).toUpperCase()));
+            }
+
+            String inputString = "Sofia is smaller than Berlin, but Berlin is smaller than Moscow.";
+            Writer csvOutput = new StringWriter();
+            Writer loadedOutput = new StringWriter();
+            new Tagger(dictionary).tagCities(new StringReader(inputString), csvOutput);
+            new Tagger(loaded).tagCities(new StringReader(inputString), loadedOutput);
+            assertEquals(csvOutput.toString(), loadedOutput.toString());
+        } finally {
+            Files.delete(compiledDictionary);
+        }
+    }
+
+    @Test
+    public void testLoadRestoresMatcher() throws IOException {
+        Path compiledDictionary = Files.createTempFile("cities", ".dict");
+        try {
+            CityDictionary dictionary = CityDictionary.readCsv(
+                    new StringReader("Sofia,Bulgaria\nNew York,United States\nNew,Nowhere\nBerlin,Germany"));
+            dictionary.write(compiledDictionary);
+            CityDictionary loaded = CityDictionary.load(compiledDictionary);
+            CityMatcher matcher = loaded.matcher();
+            char[] text = "in new york and BERLIN".toCharArray();
+
+            assertEquals(dictionary.matcher().maxNameLength(), matcher.maxNameLength());
+            assertEquals(loaded.indexOf("New York"), CityMatcher.matchedCity(matcher.match(text, 3, text.length)));
+            assertEquals("New York".length(), CityMatcher.matchedLength(matcher.match(text, 3, text.length)));
+            assertEquals(loaded.indexOf("New"), CityMatcher.matchedCity(matcher.match(text, 3, 6)));
+            assertEquals(loaded.indexOf("Berlin"), CityMatcher.matchedCity(matcher.match(text, 16, text.length)));
+            assertEquals(CityMatcher.NO_MATCH, matcher.match(text, 12, text.length));
+        } finally {
+            Files.delete(compiledDictionary);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadTruncatedMatcher() throws IOException {
+        Path compiledDictionary = Files.createTempFile("cities", ".dict");
+        try {
+            CityDictionary.readCsv(new StringReader("Sofia,Bulgaria")).write(compiledDictionary);
+            byte[] bytes = Files.readAllBytes(compiledDictionary);
+            Files.write(compiledDictionary, Arrays.copyOf(bytes, bytes.length - Integer.BYTES));
+
+            CityDictionary.load(compiledDictionary);
+        } finally {
+            Files.delete(compiledDictionary);
+        }
+    }
+
+    @Test
+    public void testLoadCorruptedCityTables() throws IOException {
+        // the header, the country arena and offsets, and the city arena precede the city offsets
+        int cityOffsets = 2 * Integer.BYTES + Integer.BYTES + "Bulgaria".length() * Character.BYTES
+                + 3 * Integer.BYTES + Integer.BYTES + "Sofia".length() * Character.BYTES;
+        int cityCountries = cityOffsets + 3 * Integer.BYTES;
+
+        assertLoadFails(cityOffsets + 2 * Integer.BYTES, "Sofia".length() + 1);
+        assertLoadFails(cityOffsets + Integer.BYTES, 1);
+        assertLoadFails(cityCountries + Integer.BYTES, 1);
+        assertLoadFails(cityCountries + Integer.BYTES, -1);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadNotCompiledDictionary() throws IOException {
+        CityDictionary.load(csvFilePath);
+    }
+
+    private static void assertLoadFails(int position, int value) throws IOException {
+        Path compiledDictionary = Files.createTempFile("cities", ".dict");
+        try {
+            CityDictionary.readCsv(new StringReader("Sofia,Bulgaria")).write(compiledDictionary);
+            byte[] bytes = Files.readAllBytes(compiledDictionary);
+            ByteBuffer.wrap(bytes).putInt(position, value);
+            Files.write(compiledDictionary, bytes);
+
+            CityDictionary.load(compiledDictionary);
+            fail("a dictionary with " + value + " at byte " + position + " was loaded");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Corrupted compiled city dictionary"));
+        } finally {
+            Files.delete(compiledDictionary);
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingCounterTest {
+
+    @Test
+    public void testHeavyHittersFoundInNoisyStream() {
+        SpaceSavingCounter counter = new SpaceSavingCounter(16, 0, () -> 0L);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int roll = random.nextInt(10);
+            if (roll < 3) {
+                counter.increment(7);
+            } else if (roll < 5) {
+                counter.increment(3);
+            } else {
+                counter.increment(100 + random.nextInt(5000));
+            }
+        }
+
+        assertEquals(100000, counter.total());
+        assertArrayEquals(new int[] {7, 3}, counter.mostFrequent(2));
+        assertEquals(16, counter.cities().length);
+    }
+
+    @Test
+    public void testExactWhileCountersSuffice() {
+        SpaceSavingCounter counter = new SpaceSavingCounter(4, 0, () -> 0L);
+        counter.add(5, 2);
+        counter.add(1, 2);
+        counter.add(9, 7);
+
+        assertArrayEquals(new int[] {9, 1, 5}, counter.mostFrequent(5));
+        int[] cities = counter.cities();
+        Arrays.sort(cities);
+        assertArrayEquals(new int[] {1, 5, 9}, cities);
+    }
+
+    @Test
+    public void testMostFrequentBreaksTiesByCity() {
+        SpaceSavingCounter counter = new SpaceSavingCounter(8, 0, () -> 0L);
+        for (int city = 7; city >= 0; city--) {
+            counter.add(city, city % 2 == 0 ? 3 : 1);
+        }
+
+        assertArrayEquals(new int[] {0, 2, 4, 6, 1}, counter.mostFrequent(5));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        SpaceSavingCounter counter = new SpaceSavingCounter(4, 0, () -> 0L);
+        counter.add(1, 5);
+        SpaceSavingCounter copy = counter.copy();
+        counter.add(2, 10);
+
+        assertArrayEquals(new int[] {1}, copy.cities());
+        assertEquals(5, copy.total());
+        assertArrayEquals(new int[] {2, 1}, counter.mostFrequent(2));
+    }
+
+    @Test
+    public void testDecayFavoursRecentTags() {
+        AtomicLong clock = new AtomicLong();
+        SpaceSavingCounter counter = new SpaceSavingCounter(8, 1000, clock::get);
+        counter.add(1, 100);
+        clock.set(10000);
+        counter.add(2, 1);
+
+        assertArrayEquals(new int[] {2, 1}, counter.mostFrequent(2));
+        assertEquals(101, counter.total());
+    }
+
+    @Test
+    public void testDecayRescalesLongStreams() {
+        AtomicLong clock = new AtomicLong();
+        SpaceSavingCounter counter = new SpaceSavingCounter(8, 1, clock::get);
+        for (int i = 0; i < 2000; i++) {
+            clock.addAndGet(1);
+            counter.increment(i % 3 == 0 ? 1 : 2);
+        }
+
+        int[] mostFrequent = counter.mostFrequent(1);
+        assertEquals(1, mostFrequent.length);
+        assertTrue(mostFrequent[0] == 1 || mostFrequent[0] == 2);
+    }
+
+}
@@ -0,0 +1,42 @@
+package bg.sofia.uni.fmi.mjt.tagger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TagCounterTest {
+
+    @Test
+    public void testMostFrequentTieBrokenByCityId() {
+        TagCounter counter = new TagCounter();
+        counter.add(7, 2);
+        counter.add(3, 5);
+        counter.add(9, 2);
+        counter.add(1, 2);
+        counter.increment(4);
+
+        assertArrayEquals(new int[] {3, 1, 7}, counter.mostFrequent(3));
+        assertArrayEquals(new int[] {3, 1, 7, 9, 4}, counter.mostFrequent(10));
+        assertArrayEquals(new int[0], counter.mostFrequent(0));
+        assertEquals(12, counter.total());
+    }
+
+    @Test
+    public void testAddAllAcrossResizes() {
+        TagCounter first = new TagCounter();
+        TagCounter second = new TagCounter();
+        for (int city = 0; city < 1000; city++) {
+            first.add(city, city);
+            second.increment(city);
+        }
+        second.addTo(first);
+
+        assertEquals(1000, first.distinctCities());
+        assertEquals(1000, first.count(999));
+        assertEquals(1, first.count(0));
+        assertEquals(0, first.count(1000));
+        assertArrayEquals(new int[] {999, 998}, first.mostFrequent(2));
+    }
+
+}
@@ -7,12 +7,26 @@ import org.junit.Test;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TaggerTest {
 
@@ -87,6 +101,420 @@ public class TaggerTest {
 
     }
 
+    @Test
+    public void testTagCitiesMultiWordCity() throws IOException {
+        String citiesString = "York,United Kingdom\nNew York,United States\nRio de Janeiro,Brazil";
+        String inputString = "From new York to York and RIO DE JANEIRO.";
+        String expectedString = "From <city country=\"United States\">New York</city> to "
+                + "<city country=\"United Kingdom\">York</city> and "
+                + "<city country=\"Brazil\">Rio de Janeiro</city>.";
+        Reader inputReader = new StringReader(inputString);
+        Writer outputWriter = new StringWriter();
+
+        Tagger newTagger = new Tagger(new StringReader(citiesString));
+
+        newTagger.tagCities(inputReader, outputWriter);
+        assertEquals(expectedString, outputWriter.toString());
+        assertEquals(3, newTagger.getAllTagsCount());
+    }
+
+    @Test
+    public void testTagCitiesCityInsideWord() throws IOException {
+        String inputString = "Sofiagrad and Berliner are not cities, but sofia and BERLIN are.";
+        String expectedString = "Sofiagrad and Berliner are not cities, but <city country=\"Bulgaria\">Sofia</city>"
+                + " and <city country=\"Germany\">Berlin</city> are.";
+        Reader inputReader = new StringReader(inputString);
+        Writer outputWriter = new StringWriter();
+
+        Tagger newTagger = new Tagger(csvReader);
+
+        newTagger.tagCities(inputReader, outputWriter);
+        assertEquals(expectedString, outputWriter.toString());
+    }
+
+    @Test
+    public void testTagCitiesLongInputAcrossBuffers() throws IOException {
+        StringBuilder inputBuilder = new StringBuilder();
+        StringBuilder expectedBuilder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            inputBuilder.append("in sofia, ");
+            expectedBuilder.append("in <city country=\"Bulgaria\">Sofia</city>, ");
+        }
+        Reader inputReader = new StringReader(inputBuilder.toString());
+        Writer outputWriter = new StringWriter();
+
+        Tagger newTagger = new Tagger(csvReader);
+
+        newTagger.tagCities(inputReader, outputWriter);
+        assertEquals(expectedBuilder.toString(), outputWriter.toString());
+        assertEquals(5000, newTagger.getAllTagsCount());
+    }
+
+    @Test
+    public void testTagCitiesInParallelSameAsSequential() throws IOException {
+        StringBuilder inputBuilder = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            inputBuilder.append(i % 3 == 0 ? "Sofia and Berlin" : "Moscow, Sofia's center").append(" line ").append(i)
+                    .append('\n');
+        }
+        String inputString = inputBuilder.toString();
+
+        Tagger sequentialTagger = new Tagger(csvReader);
+        Writer sequentialWriter = new StringWriter();
+        sequentialTagger.tagCities(new StringReader(inputString), sequentialWriter);
+
+        Tagger parallelTagger = new Tagger(Files.newBufferedReader(csvFilePath));
+        Writer parallelWriter = new StringWriter();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            parallelTagger.tagCities(new StringReader(inputString), parallelWriter, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(sequentialWriter.toString(), parallelWriter.toString());
+        assertEquals(sequentialTagger.getAllTagsCount(), parallelTagger.getAllTagsCount());
+        assertArrayEquals(sequentialTagger.getNMostTaggedCities(3).toArray(),
+                parallelTagger.getNMostTaggedCities(3).toArray());
+    }
+
+    @Test
+    public void testTagCitiesInParallelCutsFullChunksFromShortReads() throws IOException {
+        StringBuilder inputBuilder = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            inputBuilder.append(i % 3 == 0 ? "Sofia and Berlin" : "Moscow, Sofia's center").append(" line ").append(i)
+                    .append('\n');
+        }
+        String inputString = inputBuilder.toString();
+        Reader shortReads = new FilterReader(new StringReader(inputString)) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 8192));
+            }
+        };
+
+        Tagger sequentialTagger = new Tagger(csvReader);
+        Writer sequentialWriter = new StringWriter();
+        sequentialTagger.tagCities(new StringReader(inputString), sequentialWriter);
+
+        AtomicInteger chunks = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(4) {
+            @Override
+            public <T> ForkJoinTask<T> submit(Callable<T> task) {
+                chunks.incrementAndGet();
+                return super.submit(task);
+            }
+        };
+        Writer parallelWriter = new StringWriter();
+        try {
+            sequentialTagger.tagCities(shortReads, parallelWriter, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(sequentialWriter.toString(), parallelWriter.toString());
+        assertTrue(chunks.get() <= inputString.length() / (1 << 20) + 1);
+    }
+
+    @Test
+    public void testTagCitiesFilesSameAsReaderWriter() throws IOException {
+        String inputString = "\u041f\u043b\u043e\u0432\u0434\u0438\u0432 and Sofia \uD83D\uDE00 are in Bulgaria,\nBERLIN and Moscow are not. Sofia";
+        Path inputFile = Files.createTempFile("tagger-input", ".txt");
+        Path outputFile = Files.createTempFile("tagger-output", ".txt");
+        try {
+            Files.writeString(inputFile, inputString);
+
+            Tagger readerTagger = new Tagger(csvReader);
+            Writer outputWriter = new StringWriter();
+            readerTagger.tagCities(new StringReader(inputString), outputWriter);
+
+            Tagger fileTagger = new Tagger(Files.newBufferedReader(csvFilePath));
+            fileTagger.tagCities(inputFile, outputFile);
+
+            assertEquals(outputWriter.toString(), Files.readString(outputFile));
+            assertEquals(readerTagger.getAllTagsCount(), fileTagger.getAllTagsCount());
+        } finally {
+            Files.delete(inputFile);
+            Files.delete(outputFile);
+        }
+    }
+
+    @Test
+    public void testTagCitiesConcurrentRunsHaveOwnResults() throws Exception {
+        Tagger sharedTagger = new Tagger(csvReader);
+        String[] inputs = {"Sofia, Sofia and Berlin", "Moscow", "no cities at all", "Berlin Berlin Berlin Vienna"};
+        long[] expectedCounts = {3, 1, 0, 4};
+
+        ExecutorService executor = Executors.newFixedThreadPool(inputs.length);
+        try {
+            for (int round = 0; round < 50; round++) {
+                List<Future<TaggingResult>> results = new ArrayList<>();
+                for (String input : inputs) {
+                    results.add(executor.submit(
+                            () -> sharedTagger.tagCities(new StringReader(input), new StringWriter())));
+                }
+                for (int i = 0; i < inputs.length; i++) {
+                    assertEquals(expectedCounts[i], results.get(i).get().getAllTagsCount());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAnnotateCities() throws IOException {
+        String inputString = "Only on city ?Sofia's center.\nBERLIN, not Berliner.";
+        String expectedString = "14\t5\tSofia\tBulgaria\n30\t6\tBerlin\tGermany\n";
+        Reader inputReader = new StringReader(inputString);
+        Writer annotationWriter = new StringWriter();
+
+        Tagger newTagger = new Tagger(csvReader);
+
+        TaggingResult result = newTagger.annotateCities(inputReader, annotationWriter);
+        assertEquals(expectedString, annotationWriter.toString());
+        assertEquals(2, result.getAllTagsCount());
+    }
+
+    @Test
+    public void testTaggingReaderSameAsTagCities() throws IOException {
+        StringBuilder inputBuilder = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            inputBuilder.append("From sofia to Berlin, ").append(i).append(i % 7 == 0 ? '\n' : ' ');
+        }
+        String inputString = inputBuilder.toString();
+
+        Tagger newTagger = new Tagger(csvReader);
+        Writer outputWriter = new StringWriter();
+        newTagger.tagCities(new StringReader(inputString), outputWriter);
+
+        StringBuilder readerOutput = new StringBuilder();
+        char[] buffer = new char[37];
+        TaggingResult result;
+        try (TaggingReader taggingReader = newTagger.taggingReader(new StringReader(inputString))) {
+            int read;
+            while ((read = taggingReader.read(buffer)) != -1) {
+                readerOutput.append(buffer, 0, read);
+            }
+            result = taggingReader.getResult();
+        }
+
+        assertEquals(outputWriter.toString(), readerOutput.toString());
+        assertEquals(6000, result.getAllTagsCount());
+    }
+
+    @Test
+    public void testTaggingReaderResultSoFar() throws IOException {
+        StringBuilder inputBuilder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            inputBuilder.append("Sofia\n");
+        }
+        for (int i = 0; i < 10000; i++) {
+            inputBuilder.append("Berlin\n");
+        }
+        Tagger newTagger = new Tagger(CityDictionary.readCsv(csvReader), TagStatisticsMode.heavyHitters(4));
+
+        try (TaggingReader taggingReader = newTagger.taggingReader(new StringReader(inputBuilder.toString()))) {
+            char[] buffer = new char[1024];
+            taggingReader.read(buffer);
+            TaggingResult soFar = taggingReader.getResultSoFar();
+
+            assertArrayEquals(new Object[] {"Sofia"}, soFar.getNMostTaggedCities(2).toArray());
+            long tagsSoFar = soFar.getAllTagsCount();
+            assertTrue(tagsSoFar > 0 && tagsSoFar < 20000);
+
+            while (taggingReader.read(buffer) != -1) {
+                assertEquals(tagsSoFar, soFar.getAllTagsCount());
+            }
+            assertEquals(20000, taggingReader.getResultSoFar().getAllTagsCount());
+            assertEquals(2, taggingReader.getResult().getAllTaggedCities().size());
+        }
+    }
+
+    @Test
+    public void testTagDirectory() throws IOException {
+        Path inputRoot = Files.createTempDirectory("tagger-batch-input");
+        Path outputRoot = Files.createTempDirectory("tagger-batch-output");
+        Files.createDirectories(inputRoot.resolve("nested"));
+        Files.writeString(inputRoot.resolve("first.txt"), "Sofia, Sofia and Berlin");
+        Files.writeString(inputRoot.resolve("nested").resolve("second.txt"), "Berlin and Moscow, not Berliner");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            BatchTagger batchTagger = new BatchTagger(new Tagger(csvReader), executor, 2);
+            TaggingResult corpusResult = batchTagger.tagDirectory(inputRoot, outputRoot);
+
+            assertEquals(5, corpusResult.getAllTagsCount());
+            Collection<String> mostTagged = new LinkedList<String>(Arrays.asList("Berlin", "Sofia"));
+            assertArrayEquals(mostTagged.toArray(), corpusResult.getNMostTaggedCities(2).toArray());
+            assertEquals("<city country=\"Germany\">Berlin</city> and <city country=\"Russia\">Moscow</city>,"
+                            + " not Berliner",
+                    Files.readString(outputRoot.resolve("nested").resolve("second.txt")));
+        } finally {
+            executor.shutdown();
+            for (Path root : List.of(inputRoot, outputRoot)) {
+                try (var paths = Files.walk(root)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTagDirectoryIntoInputDirectory() throws IOException {
+        Path inputRoot = Files.createTempDirectory("tagger-batch-input");
+        try {
+            new BatchTagger(new Tagger(csvReader), Runnable::run, 1)
+                    .tagDirectory(inputRoot, inputRoot.resolve("tagged"));
+        } finally {
+            Files.delete(inputRoot);
+        }
+    }
+
+    @Test
+    public void testTagDirectoryReportsUncheckedFailures() throws IOException {
+        Path inputRoot = Files.createTempDirectory("tagger-batch-input");
+        Path outputRoot = Files.createTempDirectory("tagger-batch-output");
+        Files.writeString(inputRoot.resolve("first.txt"), "Sofia and Berlin");
+
+        Tagger newTagger = new Tagger(csvReader);
+        newTagger.addListener(result -> {
+            throw new IllegalStateException("listener failed");
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new BatchTagger(newTagger, executor, 2).tagDirectory(inputRoot, outputRoot);
+            fail("the failure of the document was not reported");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdown();
+            for (Path root : List.of(inputRoot, outputRoot)) {
+                try (var paths = Files.walk(root)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTagDirectoryWaitsForStartedDocumentsWhenSubmittingFails() throws Exception {
+        Path inputRoot = Files.createTempDirectory("tagger-batch-input");
+        Path outputRoot = Files.createTempDirectory("tagger-batch-output");
+        Files.writeString(inputRoot.resolve("first.txt"), "Sofia and Berlin");
+        Files.writeString(inputRoot.resolve("second.txt"), "Berlin and Sofia");
+
+        AtomicInteger submitted = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        Tagger newTagger = new Tagger(csvReader);
+        newTagger.addListener(result -> completed.incrementAndGet());
+        Executor executor = task -> {
+            if (submitted.getAndIncrement() > 0) {
+                throw new RejectedExecutionException("executor shut down");
+            }
+            new Thread(() -> {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                task.run();
+            }).start();
+        };
+        try {
+            new BatchTagger(newTagger, executor, 2).tagDirectory(inputRoot, outputRoot);
+            fail("the rejected document was not reported");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, completed.get());
+        } finally {
+            for (Path root : List.of(inputRoot, outputRoot)) {
+                try (var paths = Files.walk(root)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReloadDictionary() throws Exception {
+        Tagger newTagger = new Tagger(new StringReader("Sofia,Bulgaria"));
+        TaggingResult oldResult = newTagger.tagCities(new StringReader("Sofia and Berlin"), new StringWriter());
+
+        newTagger.reloadDictionary(CityDictionary.readCsv(new StringReader("Berlin,Germany")));
+        Writer outputWriter = new StringWriter();
+        newTagger.tagCities(new StringReader("Sofia and Berlin"), outputWriter);
+
+        assertEquals("Sofia and <city country=\"Germany\">Berlin</city>", outputWriter.toString());
+        assertArrayEquals(new Object[] {"Sofia"}, oldResult.getAllTaggedCities().toArray());
+        assertArrayEquals(new Object[] {"Berlin"}, newTagger.getAllTaggedCities().toArray());
+
+        Path compiledDictionary = Files.createTempFile("tagger-dictionary", ".bin");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CityDictionary.readCsv(csvReader).write(compiledDictionary);
+            CityDictionary reloaded = newTagger.reloadDictionaryAsync(compiledDictionary, executor).get();
+
+            assertEquals(reloaded, newTagger.getDictionary());
+            assertEquals(2, newTagger.tagCities(new StringReader("Sofia and Berlin"), new StringWriter())
+                    .getAllTagsCount());
+        } finally {
+            executor.shutdown();
+            Files.delete(compiledDictionary);
+        }
+    }
+
+    @Test
+    public void testReloadsArePublishedInRequestOrder() throws Exception {
+        Tagger newTagger = new Tagger(new StringReader("Sofia,Bulgaria"));
+        Path olderDictionary = Files.createTempFile("tagger-dictionary", ".bin");
+        Path newerDictionary = Files.createTempFile("tagger-dictionary", ".bin");
+        try {
+            CityDictionary.readCsv(new StringReader("Berlin,Germany")).write(olderDictionary);
+            CityDictionary.readCsv(new StringReader("Paris,France")).write(newerDictionary);
+            List<Runnable> olderLoad = new ArrayList<>();
+            List<Runnable> newerLoad = new ArrayList<>();
+
+            Future<CityDictionary> older = newTagger.reloadDictionaryAsync(olderDictionary, olderLoad::add);
+            Future<CityDictionary> newer = newTagger.reloadDictionaryAsync(newerDictionary, newerLoad::add);
+            newerLoad.forEach(Runnable::run);
+            olderLoad.forEach(Runnable::run);
+
+            assertEquals(newer.get(), newTagger.getDictionary());
+            assertEquals(newer.get(), older.get());
+            Writer outputWriter = new StringWriter();
+            newTagger.tagCities(new StringReader("Paris, Berlin"), outputWriter);
+            assertEquals("<city country=\"France\">Paris</city>, Berlin", outputWriter.toString());
+        } finally {
+            Files.delete(olderDictionary);
+            Files.delete(newerDictionary);
+        }
+    }
+
+    @Test
+    public void testTaggingMetrics() throws IOException {
+        String inputString = "Sofia and Berlin\nare not Berliner\n";
+        Tagger newTagger = new Tagger(csvReader);
+        List<TaggingResult> completed = new ArrayList<>();
+        newTagger.addListener(completed::add);
+
+        TaggingResult result = newTagger.tagCities(new StringReader(inputString), new StringWriter());
+        newTagger.tagCities(new StringReader(inputString), new StringWriter());
+
+        TaggingMetrics metrics = result.getMetrics();
+        assertEquals(inputString.length(), metrics.getCharsProcessed());
+        assertEquals(2, metrics.getLinesProcessed());
+        assertEquals(6, metrics.getDictionaryProbes());
+        assertEquals(2, metrics.getDictionaryHits());
+        assertEquals(2, completed.size());
+        assertEquals(result, completed.get(0));
+
+        TaggerMetrics cumulative = newTagger.getMetrics();
+        assertEquals(2, cumulative.getRuns());
+        assertEquals(4, cumulative.getLinesProcessed());
+        assertEquals(4, cumulative.getDictionaryHits());
+        assertTrue(cumulative.getLatencyP50Nanos() <= cumulative.getLatencyP99Nanos());
+    }
+
     @Test
     public void testGetAllTagsCountDefaultFile() throws IOException {
         String inputString = "Sofia is smaller than Berlin, but Berlin is smaller than Moscow.";
@@ -152,6 +580,19 @@ public class TaggerTest {
         assertArrayEquals(mostTagged.toArray(), newTagger.getNMostTaggedCities(2).toArray());
     }
 
+    @Test
+    public void testGetNMostTaggedCitiesHeavyHitters() throws IOException {
+        String inputString = "Sofia, Sofia, Berlin is smaller than Berlin, but Berlin is smaller than Moscow.";
+
+        Tagger newTagger = new Tagger(CityDictionary.readCsv(csvReader), TagStatisticsMode.heavyHitters(3));
+        TaggingResult result = newTagger.tagCities(new StringReader(inputString), new StringWriter());
+
+        Collection<String> mostTagged = new LinkedList<String>(Arrays.asList("Berlin", "Sofia"));
+        assertArrayEquals(mostTagged.toArray(), result.getNMostTaggedCities(2).toArray());
+        assertEquals(6, result.getAllTagsCount());
+        assertEquals(3, result.getAllTaggedCities().size());
+    }
+
     @Test
     public void testGetNMostTaggedCitiesNoCities() throws IOException {
         String inputString = "there are no cities here";
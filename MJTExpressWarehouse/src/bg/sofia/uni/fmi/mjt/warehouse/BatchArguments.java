@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Validates the arguments of the batch operations of a warehouse before any parcel is touched,
+ * so that an invalid batch leaves the warehouse unchanged.
+ */
+final class BatchArguments {
+
+    private BatchArguments() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the parameters, labels or parcels is null
+     */
+    static <L, P> void check(Map<L, P> parcels, LocalDateTime submissionDate) {
+        if (parcels == null || submissionDate == null) {
+            throw new IllegalArgumentException();
+        }
+        for (Map.Entry<L, P> entry : parcels.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the collection or any of the labels is null
+     */
+    static <L> void check(Collection<L> labels) {
+        if (labels == null) {
+            throw new IllegalArgumentException();
+        }
+        for (L label : labels) {
+            if (label == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+}
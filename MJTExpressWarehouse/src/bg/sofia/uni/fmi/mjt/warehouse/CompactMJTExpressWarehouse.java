@@ -0,0 +1,829 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A warehouse for very many parcels that keeps them in parallel arrays instead of an object per parcel.
+ * Every parcel occupies a slot, i.e. an index into the arrays of labels, parcels and submission times.
+ * Submission times are stored as epoch seconds and nanos, and labels are mapped to slots by an open-addressing
+ * table of ints. Apart from the labels and parcels themselves, a parcel costs about 40 bytes of heap.
+ * <p>
+ * The slots are ordered by submission date in a treap whose child links and subtree sizes are int arrays
+ * as well. Its ranges of the oldest or newest parcels are split off in O(log n), so expiry and range deliveries
+ * visit only the parcels they remove, like in MJTExpressWarehouse, and the parcels in a time window are
+ * counted in O(log n).
+ * <p>
+ * The arrays grow with the number of parcels up to the capacity of the warehouse, and freed slots are reused.
+ */
+public class CompactMJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P> {
+
+    private static final int NONE = -1;
+    private static final int INITIAL_SLOTS = 16;
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+    private static final int PRIORITY_MULTIPLIER = 0x85EBCA6B;
+    private static final int PRIORITY_MULTIPLIER_2 = 0xC2B2AE35;
+    private static final int PRIORITY_SHIFT = 13;
+
+    /**
+     * Creates a new instance of CompactMJTExpressWarehouse with the given characteristics
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse,
+     *                        counted from the day the parcel
+     *                        was submitted. After that time passes, the parcel can be removed from the warehouse
+     */
+    public CompactMJTExpressWarehouse(int capacity, int retentionPeriod) {
+        this(capacity, retentionPeriod, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates a new instance of CompactMJTExpressWarehouse with the given characteristics that tells
+     * the current date by the given clock
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock           the clock providing the current date
+     */
+    public CompactMJTExpressWarehouse(int capacity, int retentionPeriod, Clock clock) {
+        this(capacity, retentionPeriod, clock, EvictionPolicy.retention());
+    }
+
+    /**
+     * Creates a new instance of CompactMJTExpressWarehouse with the given characteristics that tells
+     * the current date by the given clock and evicts parcels by the given policy when it is full
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock           the clock providing the current date
+     * @param evictionPolicy  the policy choosing the parcels evicted to store a parcel in the full warehouse.
+     *                        It must not be used by another warehouse
+     */
+    public CompactMJTExpressWarehouse(int capacity, int retentionPeriod, Clock clock,
+                                      EvictionPolicy<L> evictionPolicy) {
+        if (capacity <= 0 || clock == null || evictionPolicy == null) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.retentionPeriod = retentionPeriod;
+        this.clock = clock;
+        this.evictionPolicy = evictionPolicy;
+        allocate(Math.min(capacity, INITIAL_SLOTS));
+    }
+
+    /**
+     * Adds the provided parcels with the given label as a new item in the warehouse.
+     *
+     * @param label          the unique identifier of the parcel.
+     * @param parcel         the parcel that should be stored. If the storage is full, the parcel can still be stored,
+     *                       if there is at least one item that can be evicted
+     * @param submissionDate the date when the parcel was submitted into the warehouse
+     * @throws CapacityExceededException if there is no capacity left in the warehouse
+     * @throws IllegalArgumentException  if the provided date is a date in the future, or any of the parameters is null
+     */
+    @Override
+    public void submitParcel(L label, P parcel, LocalDateTime submissionDate) throws CapacityExceededException {
+        if (label == null || parcel == null || submissionDate == null
+                || submissionDate.isAfter(LocalDateTime.now(clock))) {
+            throw new IllegalArgumentException();
+        } else if (isFreeCapacity()) {
+            storeParcel(label, parcel, submissionDate);
+        } else {
+            throw new CapacityExceededException();
+        }
+    }
+
+    /**
+     * @param label the label of the wanted parcel
+     * @return the parcel with label equal to the provided one. Returns null if no parcel is found
+     * @throws IllegalArgumentException when the given label is null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public P getParcel(L label) {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        int slot = slotOf(label);
+        if (slot == NONE) {
+            return null;
+        }
+        evictionPolicy.parcelAccessed(label);
+        return (P) parcels[slot];
+    }
+
+    /**
+     * Removes the parcel with the given label from the warehouse and returns it
+     *
+     * @param label the label of the parcel for delivery
+     * @return the Parcel with label equal to the given one
+     * @throws ParcelNotFoundException  when a parcel with the given label does not exist in the warehouse
+     * @throws IllegalArgumentException then the given label is null
+     */
+    @Override
+    public P deliverParcel(L label) throws ParcelNotFoundException {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        P delivered = removeParcel(label);
+        if (delivered == null) {
+            throw new ParcelNotFoundException();
+        }
+        return delivered;
+    }
+
+    /**
+     * @return the free space in the warehouse as a decimal fraction.
+     * It should be a number between 0 and 1 rounded to two decimal places
+     */
+    @Override
+    public double getWarehouseSpaceLeft() {
+
+        double quotient = (double) (capacity - size) / (double) (capacity);
+        return (double) (Math.round(quotient * 100)) / 100;
+    }
+
+    /**
+     * @return a read-only view of all items in the warehouse, which reflects later changes of the warehouse
+     * without copying the items. if there are no items, the returned map is empty
+     */
+    @Override
+    public Map<L, P> getWarehouseItems() {
+        return itemsView;
+    }
+
+    /**
+     * Counts the items submitted in the given time window without removing them, in O(log n) time
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        int count = countBefore(toSeconds(to), to.getNano()) - countBefore(toSeconds(from), from.getNano());
+        return Math.max(0, count);
+    }
+
+    /**
+     * Returns the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to, in the order they were submitted.
+     * If there are no such items, the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        Map<L, P> found = new LinkedHashMap<>();
+        SlotRange window = new SlotRange(toSeconds(from), from.getNano(), NONE, toSeconds(to), to.getNano(), NONE);
+        visitRange(window, Integer.MAX_VALUE, slot -> found.put((L) labels[slot], (P) parcels[slot]));
+        return found;
+    }
+
+    /**
+     * Removes all items submitted before the given date from the warehouse, and returns them
+     *
+     * @param before the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted before the given date,
+     * the returned Map is empty. If the given date is in the future, all items in the warehouse are returned
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        }
+        split(root, toSeconds(before), before.getNano(), NONE);
+        root = splitRight;
+        return deliverTree(splitLeft);
+    }
+
+    /**
+     * Removes all items submitted after the given date from the warehouse, and returns them
+     *
+     * @param after the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted after the given date,
+     * the returned Map is empty. An empty Map is returned if the given date is in the future
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        }
+        split(root, toSeconds(after), after.getNano(), Integer.MAX_VALUE);
+        root = splitLeft;
+        return deliverTree(splitRight);
+    }
+
+    /**
+     * Lazily removes the items submitted before the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param before the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        }
+        return streamRange(new SlotRange(Long.MIN_VALUE, 0, NONE, toSeconds(before), before.getNano(), NONE));
+    }
+
+    /**
+     * Lazily removes the items submitted after the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param after  the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        }
+        return streamRange(new SlotRange(toSeconds(after), after.getNano(), Integer.MAX_VALUE, Long.MAX_VALUE, 0, 0));
+    }
+
+    /**
+     * Adds the provided parcels, all submitted at the given date, as new items in the warehouse.
+     * The parcels are stored in the iteration order of the map until the warehouse is full and no item
+     * can be evicted. The remaining parcels are not stored.
+     * The batch is validated and the clock is read once, and once eviction fails the remaining parcels are
+     * rejected without trying to evict again.
+     *
+     * @param batch          the parcels that should be stored, by label
+     * @param submissionDate the date when the parcels were submitted into the warehouse
+     * @return the labels of the parcels that were not stored for lack of capacity. Empty if all parcels are stored
+     * @throws IllegalArgumentException if the provided date is a date in the future, or any of the parameters,
+     *                                  labels or parcels is null. No parcel is stored then
+     */
+    @Override
+    public Set<L> submitParcels(Map<L, P> batch, LocalDateTime submissionDate) {
+        BatchArguments.check(batch, submissionDate);
+        if (submissionDate.isAfter(LocalDateTime.now(clock))) {
+            throw new IllegalArgumentException();
+        }
+        Set<L> rejected = new HashSet<>();
+        for (Map.Entry<L, P> entry : batch.entrySet()) {
+            if (rejected.isEmpty() && isFreeCapacity()) {
+                storeParcel(entry.getKey(), entry.getValue(), submissionDate);
+            } else {
+                rejected.add(entry.getKey());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Removes the parcels with the given labels from the warehouse and returns them.
+     * Labels of parcels that are not in the warehouse are skipped.
+     *
+     * @param labels the labels of the parcels for delivery
+     * @return the delivered parcels by label. If none of the parcels is in the warehouse, the returned Map is empty
+     * @throws IllegalArgumentException if the given collection or any of the labels is null.
+     *                                  No parcel is delivered then
+     */
+    @Override
+    public Map<L, P> deliverParcels(Collection<L> labels) {
+        BatchArguments.check(labels);
+        Map<L, P> delivered = new HashMap<>();
+        for (L label : labels) {
+            P removed = removeParcel(label);
+            if (removed != null) {
+                delivered.put(label, removed);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Removes all parcels whose retention period has passed, i.e. which were submitted more than
+     * retentionPeriod whole days ago. Only the expired parcels are visited.
+     *
+     * @return the number of removed parcels
+     */
+    public int removeExpiredParcels() {
+        LocalDateTime lastExpiredDate = LocalDateTime.now(clock).minusDays(retentionPeriod + 1L);
+        split(root, toSeconds(lastExpiredDate), lastExpiredDate.getNano(), Integer.MAX_VALUE);
+        root = splitRight;
+        return removeTree(splitLeft, null);
+    }
+
+    private void storeParcel(L label, P parcel, LocalDateTime submissionDate) {
+        int slot = slotOf(label);
+        if (slot == NONE) {
+            slot = allocateSlot();
+            labels[slot] = label;
+            insertLabel(slot);
+            size++;
+        } else {
+            detachFromOrder(slot);
+        }
+        parcels[slot] = parcel;
+        seconds[slot] = toSeconds(submissionDate);
+        nanos[slot] = submissionDate.getNano();
+        left[slot] = NONE;
+        right[slot] = NONE;
+        subtreeSizes[slot] = 1;
+        insertIntoOrder(slot);
+        evictionPolicy.parcelStored(label);
+    }
+
+    private boolean isFreeCapacity() {
+        if (size < capacity) {
+            return true;
+        } else {
+            evictionPolicy.evict(policyStorage);
+            return size < capacity;
+        }
+    }
+
+    /**
+     * @return the removed parcel, or null if there is no parcel with @label
+     */
+    @SuppressWarnings("unchecked")
+    private P removeParcel(L label) {
+        int slot = slotOf(label);
+        if (slot == NONE) {
+            return null;
+        }
+        P removed = (P) parcels[slot];
+        detachFromOrder(slot);
+        release(slot);
+        return removed;
+    }
+
+    /**
+     * Streams the parcels of a range of the treap, looking up a page of labels from the start of the range
+     * whenever the previous page has been delivered.
+     */
+    @SuppressWarnings("unchecked")
+    private Stream<Map.Entry<L, P>> streamRange(SlotRange range) {
+        return PagedDeliveries.stream(() -> firstLabels(range, PagedDeliveries.PAGE_SIZE), label -> {
+            int slot = slotOf(label);
+            if (slot == NONE || !range.contains(slot)) {
+                return null;
+            }
+            P parcel = (P) parcels[slot];
+            detachFromOrder(slot);
+            release(slot);
+            return Map.entry(label, parcel);
+        });
+    }
+
+    /**
+     * @return the labels of the first @limit slots of @range
+     */
+    @SuppressWarnings("unchecked")
+    private List<L> firstLabels(SlotRange range, int limit) {
+        List<L> found = new ArrayList<>();
+        visitRange(range, limit, slot -> found.add((L) labels[slot]));
+        return found;
+    }
+
+    /**
+     * Visits the first @limit slots of @range in order, walking the treap from the first slot of the range
+     * with the path to the current slot on a stack.
+     */
+    private void visitRange(SlotRange range, int limit, IntConsumer visitor) {
+        int visited = 0;
+        int[] path = new int[Integer.SIZE];
+        int depth = 0;
+        for (int node = root; node != NONE; ) {
+            if (range.isBelow(node)) {
+                node = right[node];
+            } else {
+                path = push(path, depth++, node);
+                node = left[node];
+            }
+        }
+        while (depth > 0 && visited < limit) {
+            int node = path[--depth];
+            if (!range.contains(node)) {
+                break;
+            }
+            visitor.accept(node);
+            visited++;
+            for (int next = right[node]; next != NONE; next = left[next]) {
+                path = push(path, depth++, next);
+            }
+        }
+    }
+
+    /**
+     * @return the number of slots submitted before the given time, counted with the subtree sizes
+     * along a single path of the treap
+     */
+    private int countBefore(long keySeconds, int keyNanos) {
+        int count = 0;
+        for (int node = root; node != NONE; ) {
+            if (isBefore(node, keySeconds, keyNanos, NONE)) {
+                count += sizeOf(left[node]) + 1;
+                node = right[node];
+            } else {
+                node = left[node];
+            }
+        }
+        return count;
+    }
+
+    private static int[] push(int[] path, int depth, int node) {
+        int[] grown = depth < path.length ? path : Arrays.copyOf(path, path.length * 2);
+        grown[depth] = node;
+        return grown;
+    }
+
+    private Map<L, P> deliverTree(int node) {
+        Map<L, P> delivered = new HashMap<>();
+        removeTree(node, delivered);
+        return delivered;
+    }
+
+    /**
+     * Removes the parcels of a subtree that has been split off the treap.
+     *
+     * @param delivered the map receiving the removed parcels, or null if they are discarded
+     * @return the number of removed parcels
+     */
+    @SuppressWarnings("unchecked")
+    private int removeTree(int node, Map<L, P> delivered) {
+        if (node == NONE) {
+            return 0;
+        }
+        int leftChild = left[node];
+        int rightChild = right[node];
+        if (delivered != null) {
+            delivered.put((L) labels[node], (P) parcels[node]);
+        }
+        release(node);
+        return 1 + removeTree(leftChild, delivered) + removeTree(rightChild, delivered);
+    }
+
+    /**
+     * Removes the parcel in @slot from the label table and frees the slot. The slot must already be
+     * detached from the treap.
+     */
+    @SuppressWarnings("unchecked")
+    private void release(int slot) {
+        L label = (L) labels[slot];
+        removeLabel(slot);
+        labels[slot] = null;
+        parcels[slot] = null;
+        left[slot] = freeSlots;
+        freeSlots = slot;
+        size--;
+        evictionPolicy.parcelRemoved(label);
+    }
+
+    private int allocateSlot() {
+        if (freeSlots != NONE) {
+            int slot = freeSlots;
+            freeSlots = left[slot];
+            return slot;
+        }
+        if (usedSlots == labels.length) {
+            allocate(Math.min(capacity, labels.length * 2));
+        }
+        return usedSlots++;
+    }
+
+    // the treap ordering slots by submission date, with the slot as a tie-breaker
+
+    private void insertIntoOrder(int slot) {
+        split(root, seconds[slot], nanos[slot], slot);
+        root = merge(merge(splitLeft, slot), splitRight);
+    }
+
+    private void detachFromOrder(int slot) {
+        split(root, seconds[slot], nanos[slot], slot);
+        int before = splitLeft;
+        split(splitRight, seconds[slot], nanos[slot], slot + 1);
+        root = merge(before, splitRight);
+    }
+
+    /**
+     * Splits the subtree of @node into the slots ordered before the given key, left in splitLeft,
+     * and the rest, left in splitRight.
+     */
+    private void split(int node, long keySeconds, int keyNanos, int keySlot) {
+        if (node == NONE) {
+            splitLeft = NONE;
+            splitRight = NONE;
+        } else if (isBefore(node, keySeconds, keyNanos, keySlot)) {
+            split(right[node], keySeconds, keyNanos, keySlot);
+            right[node] = splitLeft;
+            resize(node);
+            splitLeft = node;
+        } else {
+            split(left[node], keySeconds, keyNanos, keySlot);
+            left[node] = splitRight;
+            resize(node);
+            splitRight = node;
+        }
+    }
+
+    /**
+     * Merges two subtrees, where every slot of @first is ordered before every slot of @second.
+     *
+     * @return the root of the merged subtree
+     */
+    private int merge(int first, int second) {
+        if (first == NONE) {
+            return second;
+        } else if (second == NONE) {
+            return first;
+        } else if (priority(first) > priority(second)) {
+            right[first] = merge(right[first], second);
+            resize(first);
+            return first;
+        } else {
+            left[second] = merge(first, left[second]);
+            resize(second);
+            return second;
+        }
+    }
+
+    private void resize(int node) {
+        subtreeSizes[node] = 1 + sizeOf(left[node]) + sizeOf(right[node]);
+    }
+
+    private int sizeOf(int node) {
+        return node == NONE ? 0 : subtreeSizes[node];
+    }
+
+    private boolean isBefore(int slot, long keySeconds, int keyNanos, int keySlot) {
+        if (seconds[slot] != keySeconds) {
+            return seconds[slot] < keySeconds;
+        } else if (nanos[slot] != keyNanos) {
+            return nanos[slot] < keyNanos;
+        } else {
+            return slot < keySlot;
+        }
+    }
+
+    /**
+     * Derives the heap priority of a slot from its index, so that it needs no array of its own.
+     */
+    private static int priority(int slot) {
+        // the finalizer of MurmurHash3, a bijection, so that no two slots have the same priority
+        int hash = (slot ^ (slot >>> Short.SIZE)) * PRIORITY_MULTIPLIER;
+        hash = (hash ^ (hash >>> PRIORITY_SHIFT)) * PRIORITY_MULTIPLIER_2;
+        return hash ^ (hash >>> Short.SIZE);
+    }
+
+    private static long toSeconds(LocalDateTime date) {
+        return date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    // the open-addressing table mapping labels to slots, holding slot + 1 so that 0 marks an empty entry
+
+    private int slotOf(L label) {
+        int mask = labelTable.length - 1;
+        for (int entry = homeOf(label); labelTable[entry] != 0; entry = (entry + 1) & mask) {
+            int slot = labelTable[entry] - 1;
+            if (labels[slot].equals(label)) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    private void insertLabel(int slot) {
+        int mask = labelTable.length - 1;
+        int entry = homeOf(labels[slot]);
+        while (labelTable[entry] != 0) {
+            entry = (entry + 1) & mask;
+        }
+        labelTable[entry] = slot + 1;
+    }
+
+    /**
+     * Removes the entry of @slot by shifting back the entries probed past it, so that no tombstones are needed.
+     */
+    private void removeLabel(int slot) {
+        int mask = labelTable.length - 1;
+        int hole = homeOf(labels[slot]);
+        while (labelTable[hole] != slot + 1) {
+            hole = (hole + 1) & mask;
+        }
+        for (int entry = (hole + 1) & mask; labelTable[entry] != 0; entry = (entry + 1) & mask) {
+            int home = homeOf(labels[labelTable[entry] - 1]);
+            // the entry may move into the hole unless its home lies cyclically in (hole, entry]
+            boolean homeBetween = hole <= entry ? hole < home && home <= entry : hole < home || home <= entry;
+            if (!homeBetween) {
+                labelTable[hole] = labelTable[entry];
+                hole = entry;
+            }
+        }
+        labelTable[hole] = 0;
+    }
+
+    private int homeOf(Object label) {
+        int hash = label.hashCode() * HASH_MULTIPLIER;
+        return (hash ^ (hash >>> Short.SIZE)) & (labelTable.length - 1);
+    }
+
+    private void allocate(int slots) {
+        labels = labels == null ? new Object[slots] : Arrays.copyOf(labels, slots);
+        parcels = parcels == null ? new Object[slots] : Arrays.copyOf(parcels, slots);
+        seconds = seconds == null ? new long[slots] : Arrays.copyOf(seconds, slots);
+        nanos = nanos == null ? new int[slots] : Arrays.copyOf(nanos, slots);
+        left = left == null ? new int[slots] : Arrays.copyOf(left, slots);
+        right = right == null ? new int[slots] : Arrays.copyOf(right, slots);
+        subtreeSizes = subtreeSizes == null ? new int[slots] : Arrays.copyOf(subtreeSizes, slots);
+
+        // keep the label table at most half full
+        labelTable = new int[Integer.highestOneBit(slots * 2 - 1) * 2];
+        for (int slot = 0; slot < usedSlots; slot++) {
+            if (labels[slot] != null) {
+                insertLabel(slot);
+            }
+        }
+    }
+
+    /**
+     * The slots from a lower bound inclusive to an upper bound exclusive, where a bound is a submission time
+     * with a slot as a tie-breaker.
+     */
+    private final class SlotRange {
+
+        private final long lowSeconds;
+        private final int lowNanos;
+        private final int lowSlot;
+        private final long highSeconds;
+        private final int highNanos;
+        private final int highSlot;
+
+        SlotRange(long lowSeconds, int lowNanos, int lowSlot, long highSeconds, int highNanos, int highSlot) {
+            this.lowSeconds = lowSeconds;
+            this.lowNanos = lowNanos;
+            this.lowSlot = lowSlot;
+            this.highSeconds = highSeconds;
+            this.highNanos = highNanos;
+            this.highSlot = highSlot;
+        }
+
+        boolean isBelow(int slot) {
+            return isBefore(slot, lowSeconds, lowNanos, lowSlot);
+        }
+
+        boolean contains(int slot) {
+            return !isBelow(slot) && isBefore(slot, highSeconds, highNanos, highSlot);
+        }
+
+    }
+
+    /**
+     * A read-only view of the parcels by label, backed by the arrays of the warehouse.
+     */
+    private class ItemsView extends AbstractMap<L, P> {
+
+        private final Set<Map.Entry<L, P>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<L, P>> iterator() {
+                return new Iterator<>() {
+                    private int next = nextUsed(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < usedSlots;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry<L, P> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<L, P> entry = Map.entry((L) labels[next], (P) parcels[next]);
+                        next = nextUsed(next + 1);
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<L, P>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object label) {
+            return get(label) != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public P get(Object label) {
+            int slot = label == null ? NONE : slotOf((L) label);
+            return slot == NONE ? null : (P) parcels[slot];
+        }
+
+        private int nextUsed(int slot) {
+            while (slot < usedSlots && labels[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+
+    }
+
+    /**
+     * The view of the warehouse through which the eviction policy removes parcels.
+     */
+    private class PolicyStorage implements EvictionPolicy.Storage<L> {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public L oldestLabel() {
+            if (root == NONE) {
+                return null;
+            }
+            int oldest = root;
+            while (left[oldest] != NONE) {
+                oldest = left[oldest];
+            }
+            return (L) labels[oldest];
+        }
+
+        @Override
+        public int removeExpiredParcels() {
+            return CompactMJTExpressWarehouse.this.removeExpiredParcels();
+        }
+
+        @Override
+        public boolean evict(L label) {
+            return removeParcel(label) != null;
+        }
+
+    }
+
+    private final int capacity;
+    private final int retentionPeriod;
+    private final Clock clock;
+    private final EvictionPolicy<L> evictionPolicy;
+    private final EvictionPolicy.Storage<L> policyStorage = new PolicyStorage();
+    private final Map<L, P> itemsView = new ItemsView();
+
+    private Object[] labels;
+    private Object[] parcels;
+    private long[] seconds;
+    private int[] nanos;
+    private int[] left;
+    private int[] right;
+    private int[] subtreeSizes;
+    private int[] labelTable;
+    private int usedSlots;
+    private int freeSlots = NONE;
+    private int size;
+    private int root = NONE;
+    private int splitLeft;
+    private int splitRight;
+
+}
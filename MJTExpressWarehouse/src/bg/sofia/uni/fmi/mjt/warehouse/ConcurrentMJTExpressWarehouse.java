@@ -0,0 +1,569 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A thread-safe warehouse for many concurrent submitters and deliverers, without a global lock.
+ * Parcels are kept in a ConcurrentHashMap by label and in a ConcurrentSkipListSet ordered by submission date.
+ * <p>
+ * Capacity is reserved with a compare-and-set on the number of parcels before a parcel is stored,
+ * so the warehouse never holds more parcels than its capacity. Every stored parcel can be removed exactly once:
+ * deliveries, range deliveries and expiry race for it with a compare-and-set, and only the winner returns it.
+ * Range deliveries and getWarehouseItems() are weakly consistent, i.e. they may or may not see parcels
+ * submitted or delivered while they run.
+ */
+public class ConcurrentMJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P> {
+
+    /**
+     * Creates a new instance of ConcurrentMJTExpressWarehouse with the given characteristics
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse,
+     *                        counted from the day the parcel
+     *                        was submitted. After that time passes, the parcel can be removed from the warehouse
+     */
+    public ConcurrentMJTExpressWarehouse(int capacity, int retentionPeriod) {
+        this(capacity, retentionPeriod, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates a new instance of ConcurrentMJTExpressWarehouse with the given characteristics that tells
+     * the current date by the given clock
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock           the clock providing the current date
+     */
+    public ConcurrentMJTExpressWarehouse(int capacity, int retentionPeriod, Clock clock) {
+        this.capacity = capacity;
+        this.retentionPeriod = retentionPeriod;
+        this.clock = clock;
+    }
+
+    /**
+     * Adds the provided parcels with the given label as a new item in the warehouse.
+     *
+     * @param label          the unique identifier of the parcel.
+     * @param parcel         the parcel that should be stored. If the storage is full, the parcel can still be stored,
+     *                       if there is at least one item that can be evicted
+     * @param submissionDate the date when the parcel was submitted into the warehouse
+     * @throws CapacityExceededException if there is no capacity left in the warehouse
+     * @throws IllegalArgumentException  if the provided date is a date in the future, or any of the parameters is null
+     */
+    @Override
+    public void submitParcel(L label, P parcel, LocalDateTime submissionDate) throws CapacityExceededException {
+        if (label == null || parcel == null || submissionDate == null
+                || submissionDate.isAfter(LocalDateTime.now(clock))) {
+            throw new IllegalArgumentException();
+        } else if (reserveCapacity(1) == 0) {
+            throw new CapacityExceededException();
+        }
+        store(label, parcel, submissionDate);
+    }
+
+    /**
+     * @param label the label of the wanted parcel
+     * @return the parcel with label equal to the provided one. Returns null if no parcel is found
+     * @throws IllegalArgumentException when the given label is null
+     */
+    @Override
+    public P getParcel(L label) {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        StoredParcel<L, P> stored = parcels.get(label);
+        return stored == null || stored.isClaimed() ? null : stored.parcel;
+    }
+
+    /**
+     * Removes the parcel with the given label from the warehouse and returns it
+     *
+     * @param label the label of the parcel for delivery
+     * @return the Parcel with label equal to the given one
+     * @throws ParcelNotFoundException  when a parcel with the given label does not exist in the warehouse
+     * @throws IllegalArgumentException then the given label is null
+     */
+    @Override
+    public P deliverParcel(L label) throws ParcelNotFoundException {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        P delivered = removeParcel(label);
+        if (delivered == null) {
+            throw new ParcelNotFoundException();
+        }
+        return delivered;
+    }
+
+    /**
+     * @return the free space in the warehouse as a decimal fraction.
+     * It should be a number between 0 and 1 rounded to two decimal places
+     */
+    @Override
+    public double getWarehouseSpaceLeft() {
+
+        double quotient = (double) (capacity - size.get()) / (double) (capacity);
+        return (double) (Math.round(quotient * 100)) / 100;
+    }
+
+    /**
+     * @return a weakly consistent read-only view of all items in the warehouse, which reflects later changes
+     * of the warehouse without copying the items. if there are no items, the returned map is empty
+     */
+    @Override
+    public Map<L, P> getWarehouseItems() {
+        return itemsView;
+    }
+
+    /**
+     * Counts the items submitted in the given time window without removing them. The count is weakly consistent,
+     * like a range delivery, and visits the items in the window.
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        int count = 0;
+        for (StoredParcel<L, P> stored : window(from, to)) {
+            if (isStored(stored)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the items submitted in the given time window without removing them. The result is weakly
+     * consistent, like a range delivery.
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to, in the order they were submitted.
+     * If there are no such items, the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        Map<L, P> found = new LinkedHashMap<>();
+        for (StoredParcel<L, P> stored : window(from, to)) {
+            if (isStored(stored)) {
+                found.put(stored.label, stored.parcel);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Removes all items submitted before the given date from the warehouse, and returns them
+     *
+     * @param before the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted before the given date,
+     * the returned Map is empty. If the given date is in the future, all items in the warehouse are returned
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return deliverRange(submissionIndex.headSet(StoredParcel.bound(before, Long.MIN_VALUE), false));
+        }
+    }
+
+    /**
+     * Removes all items submitted after the given date from the warehouse, and returns them
+     *
+     * @param after the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted after the given date,
+     * the returned Map is empty. An empty Map is returned if the given date is in the future
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return deliverRange(submissionIndex.tailSet(StoredParcel.bound(after, Long.MAX_VALUE), false));
+        }
+    }
+
+    /**
+     * Lazily removes the items submitted before the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param before the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return streamRange(submissionIndex.headSet(StoredParcel.bound(before, Long.MIN_VALUE), false));
+        }
+    }
+
+    /**
+     * Lazily removes the items submitted after the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param after  the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return streamRange(submissionIndex.tailSet(StoredParcel.bound(after, Long.MAX_VALUE), false));
+        }
+    }
+
+    /**
+     * Adds the provided parcels, all submitted at the given date, as new items in the warehouse.
+     * The parcels are stored in the iteration order of the map until the warehouse is full and no item
+     * can be evicted. The remaining parcels are not stored.
+     * Space for the whole batch is reserved with a single compare-and-set instead of one per parcel.
+     *
+     * @param batch          the parcels that should be stored, by label
+     * @param submissionDate the date when the parcels were submitted into the warehouse
+     * @return the labels of the parcels that were not stored for lack of capacity. Empty if all parcels are stored
+     * @throws IllegalArgumentException if the provided date is a date in the future, or any of the parameters,
+     *                                  labels or parcels is null. No parcel is stored then
+     */
+    @Override
+    public Set<L> submitParcels(Map<L, P> batch, LocalDateTime submissionDate) {
+        BatchArguments.check(batch, submissionDate);
+        if (submissionDate.isAfter(LocalDateTime.now(clock))) {
+            throw new IllegalArgumentException();
+        }
+        int reserved = reserveCapacity(batch.size());
+        Set<L> rejected = new HashSet<>();
+        for (Map.Entry<L, P> entry : batch.entrySet()) {
+            if (reserved > 0) {
+                store(entry.getKey(), entry.getValue(), submissionDate);
+                reserved--;
+            } else {
+                rejected.add(entry.getKey());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Removes the parcels with the given labels from the warehouse and returns them.
+     * Labels of parcels that are not in the warehouse are skipped.
+     *
+     * @param labels the labels of the parcels for delivery
+     * @return the delivered parcels by label. If none of the parcels is in the warehouse, the returned Map is empty
+     * @throws IllegalArgumentException if the given collection or any of the labels is null.
+     *                                  No parcel is delivered then
+     */
+    @Override
+    public Map<L, P> deliverParcels(Collection<L> labels) {
+        BatchArguments.check(labels);
+        Map<L, P> delivered = new HashMap<>();
+        for (L label : labels) {
+            P removed = removeParcel(label);
+            if (removed != null) {
+                delivered.put(label, removed);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Removes all parcels whose retention period has passed, i.e. which were submitted more than
+     * retentionPeriod whole days ago. Only the expired parcels are visited.
+     *
+     * @return the number of removed parcels
+     */
+    public int removeExpiredParcels() {
+        LocalDateTime lastExpiredDate = LocalDateTime.now(clock).minusDays(retentionPeriod + 1L);
+        return removeRange(submissionIndex.headSet(StoredParcel.bound(lastExpiredDate, Long.MAX_VALUE), true),
+                null);
+    }
+
+    /**
+     * Reserves space for up to @wanted parcels. Expired parcels are removed once if there is not enough space.
+     *
+     * @return the number of parcels for which space has been reserved
+     */
+    private int reserveCapacity(int wanted) {
+        boolean expiredRemoved = false;
+        while (true) {
+            int current = size.get();
+            int free = capacity - current;
+            if (free < wanted && !expiredRemoved) {
+                removeExpiredParcels();
+                expiredRemoved = true;
+            } else {
+                int reserved = Math.max(0, Math.min(free, wanted));
+                if (reserved == 0 || size.compareAndSet(current, current + reserved)) {
+                    return reserved;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores a parcel in space that has already been reserved.
+     */
+    private void store(L label, P parcel, LocalDateTime submissionDate) {
+        StoredParcel<L, P> stored = new StoredParcel<>(label, parcel, submissionDate, sequence.getAndIncrement());
+        submissionIndex.add(stored);
+        StoredParcel<L, P> replaced = parcels.put(label, stored);
+        if (replaced != null && replaced.claim()) {
+            submissionIndex.remove(replaced);
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the removed parcel, or null if there is no parcel with @label
+     */
+    private P removeParcel(L label) {
+        while (true) {
+            StoredParcel<L, P> stored = parcels.get(label);
+            if (stored == null) {
+                return null;
+            } else if (stored.claim()) {
+                release(stored);
+                return stored.parcel;
+            }
+            // another thread has just removed this parcel; help it and look again
+            parcels.remove(label, stored);
+        }
+    }
+
+    private Map<L, P> deliverRange(NavigableSet<StoredParcel<L, P>> range) {
+        Map<L, P> delivered = new HashMap<>();
+        removeRange(range, delivered);
+        return delivered;
+    }
+
+    /**
+     * Removes the parcels of a range of the submission index that are stored under their label.
+     *
+     * @param range     a view of the submission index
+     * @param delivered the map receiving the removed parcels, or null if they are discarded
+     * @return the number of removed parcels
+     */
+    private int removeRange(NavigableSet<StoredParcel<L, P>> range, Map<L, P> delivered) {
+        int removed = 0;
+        for (StoredParcel<L, P> stored : range) {
+            if (tryRemove(stored)) {
+                if (delivered != null) {
+                    delivered.put(stored.label, stored.parcel);
+                }
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private NavigableSet<StoredParcel<L, P>> window(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        return from.isBefore(to)
+                ? submissionIndex.subSet(StoredParcel.bound(from, Long.MIN_VALUE), true,
+                        StoredParcel.bound(to, Long.MIN_VALUE), false)
+                : Collections.emptyNavigableSet();
+    }
+
+    /**
+     * @return whether a parcel found in the submission index is stored under its label and not being removed
+     */
+    private boolean isStored(StoredParcel<L, P> stored) {
+        return !stored.isClaimed() && parcels.get(stored.label) == stored;
+    }
+
+    /**
+     * Streams the parcels of a range of the submission index, continuing a weakly consistent iteration
+     * of the range with every page.
+     */
+    private Stream<Map.Entry<L, P>> streamRange(NavigableSet<StoredParcel<L, P>> range) {
+        Iterator<StoredParcel<L, P>> candidates = range.iterator();
+        return PagedDeliveries.stream(() -> {
+            List<StoredParcel<L, P>> page = new ArrayList<>();
+            while (page.size() < PagedDeliveries.PAGE_SIZE && candidates.hasNext()) {
+                page.add(candidates.next());
+            }
+            return page;
+        }, stored -> tryRemove(stored) ? Map.entry(stored.label, stored.parcel) : null);
+    }
+
+    /**
+     * Removes a parcel found in the submission index if it is stored under its label and no other thread
+     * removes it first. A parcel that is indexed but not stored yet is left to its submission.
+     *
+     * @return whether the parcel has been removed by the calling thread
+     */
+    private boolean tryRemove(StoredParcel<L, P> stored) {
+        if (parcels.get(stored.label) == stored && stored.claim()) {
+            release(stored);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(StoredParcel<L, P> stored) {
+        parcels.remove(stored.label, stored);
+        submissionIndex.remove(stored);
+        size.decrementAndGet();
+    }
+
+    /**
+     * A weakly consistent read-only view of the parcels by label, backed by the map of stored parcels.
+     * Parcels that are being removed are left out.
+     */
+    private class ItemsView extends AbstractMap<L, P> {
+
+        private final Set<Map.Entry<L, P>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<L, P>> iterator() {
+                Iterator<StoredParcel<L, P>> stored = parcels.values().iterator();
+                return new Iterator<>() {
+                    private StoredParcel<L, P> next = advance();
+
+                    @Override
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    @Override
+                    public Map.Entry<L, P> next() {
+                        if (next == null) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<L, P> entry = Map.entry(next.label, next.parcel);
+                        next = advance();
+                        return entry;
+                    }
+
+                    private StoredParcel<L, P> advance() {
+                        while (stored.hasNext()) {
+                            StoredParcel<L, P> candidate = stored.next();
+                            if (!candidate.isClaimed()) {
+                                return candidate;
+                            }
+                        }
+                        return null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ItemsView.this.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<L, P>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            return Math.max(0, size.get());
+        }
+
+        @Override
+        public boolean containsKey(Object label) {
+            return get(label) != null;
+        }
+
+        @Override
+        public P get(Object label) {
+            StoredParcel<L, P> stored = label == null ? null : parcels.get(label);
+            return stored == null || stored.isClaimed() ? null : stored.parcel;
+        }
+
+    }
+
+    /**
+     * A parcel together with its submission date. The sequence number orders parcels submitted at the same date,
+     * so that every parcel has its own entry in the submission index.
+     */
+    private static final class StoredParcel<L, P> implements Comparable<StoredParcel<L, P>> {
+
+        private final L label;
+        private final P parcel;
+        private final LocalDateTime submissionDate;
+        private final long sequence;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        StoredParcel(L label, P parcel, LocalDateTime submissionDate, long sequence) {
+            this.label = label;
+            this.parcel = parcel;
+            this.submissionDate = submissionDate;
+            this.sequence = sequence;
+        }
+
+        static <L, P> StoredParcel<L, P> bound(LocalDateTime submissionDate, long sequence) {
+            return new StoredParcel<>(null, null, submissionDate, sequence);
+        }
+
+        /**
+         * @return whether the calling thread has won the right to remove the parcel
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        boolean isClaimed() {
+            return claimed.get();
+        }
+
+        @Override
+        public int compareTo(StoredParcel<L, P> other) {
+            int byDate = submissionDate.compareTo(other.submissionDate);
+            return byDate != 0 ? byDate : Long.compare(sequence, other.sequence);
+        }
+
+    }
+
+    private final int capacity;
+    private final int retentionPeriod;
+    private final Clock clock;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<L, StoredParcel<L, P>> parcels = new ConcurrentHashMap<>();
+    private final NavigableSet<StoredParcel<L, P>> submissionIndex = new ConcurrentSkipListSet<>();
+    private final Map<L, P> itemsView = new ItemsView();
+
+}
@@ -4,7 +4,12 @@ import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
 import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
 
 public interface DeliveryServiceWarehouse<L, P> {
 
@@ -44,10 +49,33 @@ public interface DeliveryServiceWarehouse<L, P> {
     double getWarehouseSpaceLeft();
 
     /**
-     * @return a Map of all items in the warehouse. if there are no items, the returned map is empty
+     * @return a Map of all items in the warehouse. if there are no items, the returned map is empty.
+     * The map may be a read-only view that reflects later changes of the warehouse, so it should be copied
+     * to keep the current items
      */
     Map<L, P> getWarehouseItems();
 
+    /**
+     * Counts the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to);
+
+    /**
+     * Returns the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to, in the order they were submitted.
+     * If there are no such items, the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to);
+
     /**
      * Removes all items submitted before the given date from the warehouse, and returns them
      *
@@ -67,4 +95,82 @@ public interface DeliveryServiceWarehouse<L, P> {
      * @throws IllegalArgumentException when the given date is null
      */
     Map<L, P> deliverParcelsSubmittedAfter(LocalDateTime after);
+
+    /**
+     * Lazily removes the items submitted before the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse. The default implementation removes all items at once with
+     * deliverParcelsSubmittedBefore() and yields them in no particular order.
+     *
+     * @param before the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    default Stream<Map.Entry<L, P>> streamDeliveriesSubmittedBefore(LocalDateTime before) {
+        return deliverParcelsSubmittedBefore(before).entrySet().stream();
+    }
+
+    /**
+     * Lazily removes the items submitted after the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse. The default implementation removes all items at once with
+     * deliverParcelsSubmittedAfter() and yields them in no particular order.
+     *
+     * @param after the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    default Stream<Map.Entry<L, P>> streamDeliveriesSubmittedAfter(LocalDateTime after) {
+        return deliverParcelsSubmittedAfter(after).entrySet().stream();
+    }
+
+    /**
+     * Adds the provided parcels, all submitted at the given date, as new items in the warehouse.
+     * The parcels are stored in the iteration order of the map until the warehouse is full and no item
+     * can be evicted. The remaining parcels are not stored.
+     *
+     * @param batch          the parcels that should be stored, by label
+     * @param submissionDate the date when the parcels were submitted into the warehouse
+     * @return the labels of the parcels that were not stored for lack of capacity. Empty if all parcels are stored
+     * @throws IllegalArgumentException if the provided date is a date in the future, or any of the parameters,
+     *                                  labels or parcels is null. No parcel is stored then
+     */
+    default Set<L> submitParcels(Map<L, P> batch, LocalDateTime submissionDate) {
+        BatchArguments.check(batch, submissionDate);
+        Set<L> rejected = new HashSet<>();
+        for (Map.Entry<L, P> entry : batch.entrySet()) {
+            if (rejected.isEmpty()) {
+                try {
+                    submitParcel(entry.getKey(), entry.getValue(), submissionDate);
+                } catch (CapacityExceededException e) {
+                    rejected.add(entry.getKey());
+                }
+            } else {
+                rejected.add(entry.getKey());
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Removes the parcels with the given labels from the warehouse and returns them.
+     * Labels of parcels that are not in the warehouse are skipped.
+     *
+     * @param labels the labels of the parcels for delivery
+     * @return the delivered parcels by label. If none of the parcels is in the warehouse, the returned Map is empty
+     * @throws IllegalArgumentException if the given collection or any of the labels is null.
+     *                                  No parcel is delivered then
+     */
+    default Map<L, P> deliverParcels(Collection<L> labels) {
+        BatchArguments.check(labels);
+        Map<L, P> delivered = new HashMap<>();
+        for (L label : labels) {
+            try {
+                delivered.put(label, deliverParcel(label));
+            } catch (ParcelNotFoundException e) {
+                // a missing parcel is skipped
+            }
+        }
+        return delivered;
+    }
 }
\ No newline at end of file
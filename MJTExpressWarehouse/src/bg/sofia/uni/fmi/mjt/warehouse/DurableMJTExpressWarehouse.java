@@ -0,0 +1,856 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A warehouse that survives restarts. Its contents are held in an MJTExpressWarehouse, and every change -
+ * a submission, a delivery, a range delivery or an expiry - is appended to a write-ahead log in a directory
+ * before the operation returns. Operations of concurrent threads share fsyncs through group commit.
+ * <p>
+ * Every snapshotInterval changes, the contents are written to a snapshot by a background thread and the log
+ * records it covers are dropped. Opening the directory again loads the snapshot and replays the changes logged
+ * after it, so recovery reads one snapshot and about snapshotInterval log records. A change whose log record
+ * was torn by a crash is lost, but only if the operation that made it had not returned yet.
+ * <p>
+ * A change is applied in memory before it is logged. If logging or forcing a change fails, the memory and the disk
+ * may disagree, so the failure is fatal: the operation throws an UncheckedIOException, and so does every later
+ * operation of the instance. Reopening the directory restores the changes that were durable.
+ * <p>
+ * Labels and parcels are persisted with the given ParcelCodecs. The warehouse is thread-safe.
+ */
+public class DurableMJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>, Closeable {
+
+    private static final String LOG_FILE = "warehouse.log";
+    private static final String SNAPSHOT_FILE = "warehouse.snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "warehouse.snapshot.tmp";
+    private static final int SNAPSHOT_MAGIC = 0x4D4A5457;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte SUBMIT = 1;
+    private static final byte DELIVER = 2;
+    private static final byte DELIVER_BEFORE = 3;
+    private static final byte DELIVER_AFTER = 4;
+    private static final byte EXPIRE = 5;
+
+    private DurableMJTExpressWarehouse(MJTExpressWarehouse<L, P> warehouse, Path directory,
+                                       ParcelCodec<L> labelCodec, ParcelCodec<P> parcelCodec, int snapshotInterval) {
+        this.warehouse = warehouse;
+        this.directory = directory;
+        this.labelCodec = labelCodec;
+        this.parcelCodec = parcelCodec;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotWriter = snapshotInterval == 0 ? null : Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "warehouse-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the warehouse persisted in a directory, or creates a new empty one if the directory holds none.
+     *
+     * @param directory        the directory of the log and the snapshot, which is created if it does not exist
+     * @param capacity         the total number of parcels that the warehouse can store
+     * @param retentionPeriod  the maximum number of days for which a parcel can stay in the warehouse
+     * @param labelCodec       the codec persisting labels
+     * @param parcelCodec      the codec persisting parcels
+     * @param snapshotInterval the number of changes after which a snapshot is written in the background,
+     *                         or 0 to write snapshots only when snapshot() is called
+     * @throws IOException if the directory cannot be read or holds a corrupted snapshot
+     */
+    public static <L, P> DurableMJTExpressWarehouse<L, P> open(Path directory, int capacity, int retentionPeriod,
+                                                               ParcelCodec<L> labelCodec, ParcelCodec<P> parcelCodec,
+                                                               int snapshotInterval) throws IOException {
+        return open(directory, capacity, retentionPeriod, labelCodec, parcelCodec, snapshotInterval,
+                Clock.systemDefaultZone());
+    }
+
+    /**
+     * Opens the warehouse persisted in a directory like open(), telling the current date by the given clock.
+     */
+    public static <L, P> DurableMJTExpressWarehouse<L, P> open(Path directory, int capacity, int retentionPeriod,
+                                                               ParcelCodec<L> labelCodec, ParcelCodec<P> parcelCodec,
+                                                               int snapshotInterval, Clock clock) throws IOException {
+        if (directory == null || labelCodec == null || parcelCodec == null || snapshotInterval < 0) {
+            throw new IllegalArgumentException();
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+
+        DurableMJTExpressWarehouse<L, P> durable = new DurableMJTExpressWarehouse<>(
+                new MJTExpressWarehouse<>(capacity, retentionPeriod, clock), directory, labelCodec, parcelCodec,
+                snapshotInterval);
+        long snapshotSequence = durable.loadSnapshot();
+        try {
+            durable.log = WriteAheadLog.open(directory.resolve(LOG_FILE), snapshotSequence,
+                    (sequence, payload) -> durable.replay(payload));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        durable.warehouse.setExpiryListener(durable::logExpiry);
+        durable.recoveryDuration = Duration.ofNanos(System.nanoTime() - start);
+        return durable;
+    }
+
+    /**
+     * Adds the provided parcels with the given label as a new item in the warehouse.
+     *
+     * @param label          the unique identifier of the parcel.
+     * @param parcel         the parcel that should be stored. If the storage is full, the parcel can still be stored,
+     *                       if there is at least one item that can be evicted
+     * @param submissionDate the date when the parcel was submitted into the warehouse
+     * @throws CapacityExceededException if there is no capacity left in the warehouse
+     * @throws IllegalArgumentException  if the provided date is a date in the future, or any of the parameters is null
+     * @throws UncheckedIOException      if the submission cannot be logged
+     */
+    @Override
+    public void submitParcel(L label, P parcel, LocalDateTime submissionDate) throws CapacityExceededException {
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            warehouse.submitParcel(label, parcel, submissionDate);
+            sequence = logSubmission(label, parcel, submissionDate);
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * @param label the label of the wanted parcel
+     * @return the parcel with label equal to the provided one. Returns null if no parcel is found
+     * @throws IllegalArgumentException when the given label is null
+     */
+    @Override
+    public synchronized P getParcel(L label) {
+        checkUsable();
+        return warehouse.getParcel(label);
+    }
+
+    /**
+     * Removes the parcel with the given label from the warehouse and returns it
+     *
+     * @param label the label of the parcel for delivery
+     * @return the Parcel with label equal to the given one
+     * @throws ParcelNotFoundException  when a parcel with the given label does not exist in the warehouse
+     * @throws IllegalArgumentException then the given label is null
+     * @throws UncheckedIOException     if the delivery cannot be logged
+     */
+    @Override
+    public P deliverParcel(L label) throws ParcelNotFoundException {
+        P parcel;
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            parcel = warehouse.deliverParcel(label);
+            sequence = append(DELIVER, out -> labelCodec.write(label, out));
+        }
+        awaitDurable(sequence);
+        return parcel;
+    }
+
+    /**
+     * @return the free space in the warehouse as a decimal fraction.
+     * It should be a number between 0 and 1 rounded to two decimal places
+     */
+    @Override
+    public synchronized double getWarehouseSpaceLeft() {
+        checkUsable();
+        return warehouse.getWarehouseSpaceLeft();
+    }
+
+    /**
+     * @return a Map of all items in the warehouse. if there are no items, the returned map is empty.
+     * The map is a read-only view whose reads hold the monitor of the warehouse, so size() and get() copy
+     * nothing. An iterator walks a copy of the items taken while holding the monitor
+     */
+    @Override
+    public Map<L, P> getWarehouseItems() {
+        return itemsView;
+    }
+
+    /**
+     * Counts the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public synchronized int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        checkUsable();
+        return warehouse.countParcelsSubmittedBetween(from, to);
+    }
+
+    /**
+     * Returns the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to, in the order they were submitted.
+     * If there are no such items, the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public synchronized Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        checkUsable();
+        return warehouse.getParcelsSubmittedBetween(from, to);
+    }
+
+    /**
+     * Removes all items submitted before the given date from the warehouse, and returns them
+     *
+     * @param before the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted before the given date,
+     * the returned Map is empty. If the given date is in the future, all items in the warehouse are returned
+     * @throws IllegalArgumentException when the given date is null
+     * @throws UncheckedIOException     if the delivery cannot be logged
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedBefore(LocalDateTime before) {
+        Map<L, P> delivered;
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            delivered = warehouse.deliverParcelsSubmittedBefore(before);
+            sequence = delivered.isEmpty() ? 0 : append(DELIVER_BEFORE, out -> writeDate(before, out));
+        }
+        awaitDurable(sequence);
+        return delivered;
+    }
+
+    /**
+     * Removes all items submitted after the given date from the warehouse, and returns them
+     *
+     * @param after the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted after the given date,
+     * the returned Map is empty. An empty Map is returned if the given date is in the future
+     * @throws IllegalArgumentException when the given date is null
+     * @throws UncheckedIOException     if the delivery cannot be logged
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedAfter(LocalDateTime after) {
+        Map<L, P> delivered;
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            delivered = warehouse.deliverParcelsSubmittedAfter(after);
+            sequence = delivered.isEmpty() ? 0 : append(DELIVER_AFTER, out -> writeDate(after, out));
+        }
+        awaitDurable(sequence);
+        return delivered;
+    }
+
+    /**
+     * Lazily removes the items submitted before the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse. The deliveries are logged a page at a time ahead of the yielded items, with
+     * one fsync per page, and every item is durable before it is yielded; the items of a page that are not
+     * yielded are logged back when the stream is exhausted or closed, or at the latest when the warehouse is.
+     *
+     * @param before the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     * @throws UncheckedIOException     if a delivery cannot be logged
+     */
+    @Override
+    public synchronized Stream<Map.Entry<L, P>> streamDeliveriesSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        }
+        checkUsable();
+        return logged(limit -> warehouse.labelsSubmittedBefore(before, limit));
+    }
+
+    /**
+     * Lazily removes the items submitted after the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse. The deliveries are logged a page at a time ahead of the yielded items, with
+     * one fsync per page, and every item is durable before it is yielded; the items of a page that are not
+     * yielded are logged back when the stream is exhausted or closed, or at the latest when the warehouse is.
+     *
+     * @param after  the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     * @throws UncheckedIOException     if a delivery cannot be logged
+     */
+    @Override
+    public synchronized Stream<Map.Entry<L, P>> streamDeliveriesSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        }
+        checkUsable();
+        return logged(limit -> warehouse.labelsSubmittedAfter(after, limit));
+    }
+
+    /**
+     * Adds the provided parcels, all submitted at the given date, as new items in the warehouse.
+     * The parcels are stored in the iteration order of the map until the warehouse is full and no item
+     * can be evicted. The remaining parcels are not stored.
+     * The whole batch is applied under one lock and waits for a single fsync.
+     *
+     * @param batch          the parcels that should be stored, by label
+     * @param submissionDate the date when the parcels were submitted into the warehouse
+     * @return the labels of the parcels that were not stored for lack of capacity. Empty if all parcels are stored
+     * @throws IllegalArgumentException if the provided date is a date in the future, or any of the parameters,
+     *                                  labels or parcels is null. No parcel is stored then
+     * @throws UncheckedIOException     if the submissions cannot be logged
+     */
+    @Override
+    public Set<L> submitParcels(Map<L, P> batch, LocalDateTime submissionDate) {
+        BatchArguments.check(batch, submissionDate);
+        Set<L> rejected = new HashSet<>();
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            // every submission is logged right after it is applied, since it may expire parcels logged before it
+            for (Map.Entry<L, P> entry : batch.entrySet()) {
+                if (rejected.isEmpty()) {
+                    try {
+                        warehouse.submitParcel(entry.getKey(), entry.getValue(), submissionDate);
+                        logSubmission(entry.getKey(), entry.getValue(), submissionDate);
+                    } catch (CapacityExceededException e) {
+                        rejected.add(entry.getKey());
+                    }
+                } else {
+                    rejected.add(entry.getKey());
+                }
+            }
+            sequence = log.lastSequence();
+        }
+        awaitDurable(sequence);
+        return rejected;
+    }
+
+    /**
+     * Removes the parcels with the given labels from the warehouse and returns them.
+     * Labels of parcels that are not in the warehouse are skipped.
+     * The whole batch is applied under one lock and waits for a single fsync.
+     *
+     * @param labels the labels of the parcels for delivery
+     * @return the delivered parcels by label. If none of the parcels is in the warehouse, the returned Map is empty
+     * @throws IllegalArgumentException if the given collection or any of the labels is null.
+     *                                  No parcel is delivered then
+     * @throws UncheckedIOException     if the deliveries cannot be logged
+     */
+    @Override
+    public Map<L, P> deliverParcels(Collection<L> labels) {
+        Map<L, P> delivered;
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            delivered = warehouse.deliverParcels(labels);
+            for (L label : delivered.keySet()) {
+                append(DELIVER, out -> labelCodec.write(label, out));
+            }
+            sequence = log.lastSequence();
+        }
+        awaitDurable(sequence);
+        return delivered;
+    }
+
+    /**
+     * Removes all parcels whose retention period has passed and logs the expiry.
+     *
+     * @return the number of removed parcels
+     * @throws UncheckedIOException if the expiry cannot be logged
+     */
+    public int removeExpiredParcels() {
+        int removed;
+        long sequence;
+        synchronized (this) {
+            checkUsable();
+            removed = warehouse.removeExpiredParcels();
+            sequence = log.lastSequence();
+        }
+        awaitDurable(sequence);
+        return removed;
+    }
+
+    /**
+     * Writes the current contents of the warehouse to a new snapshot, replacing the previous one atomically,
+     * and drops the log records it covers. Operations wait only while the contents are copied, which takes time
+     * linear in the number of parcels but no I/O. The snapshot is then written and forced while they go on.
+     *
+     * @throws UncheckedIOException if logging a change has failed, since the contents may not match the log then
+     */
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long coveredSequence;
+            long coveredOffset;
+            List<Map.Entry<L, Map.Entry<LocalDateTime, P>>> parcels;
+            synchronized (this) {
+                checkUsable();
+                coveredSequence = log.lastSequence();
+                coveredOffset = log.endOffset();
+                // items logged as delivered ahead of a stream are left out until they are yielded or logged back
+                Set<L> loggedAhead = new HashSet<>();
+                for (LoggedDeliveries stream : openStreams) {
+                    stream.addLoggedAhead(loggedAhead);
+                }
+                parcels = new ArrayList<>(warehouse.parcelEntries().size());
+                for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : warehouse.parcelEntries().entrySet()) {
+                    if (!loggedAhead.contains(entry.getKey())) {
+                        parcels.add(Map.entry(entry.getKey(), entry.getValue()));
+                    }
+                }
+                changesSinceSnapshot = 0;
+            }
+
+            Path temporary = directory.resolve(SNAPSHOT_TEMP_FILE);
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+                CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE),
+                        new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(coveredSequence);
+                out.writeInt(parcels.size());
+                for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : parcels) {
+                    labelCodec.write(entry.getKey(), out);
+                    parcelCodec.write(entry.getValue().getValue(), out);
+                    writeDate(entry.getValue().getKey(), out);
+                }
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            // the rename must be durable before the records it covers are dropped from the log
+            WriteAheadLog.forceDirectory(directory);
+
+            log.discardUpTo(coveredOffset);
+        }
+    }
+
+    /**
+     * @return the time it took open() to load the snapshot and replay the log
+     */
+    public Duration getRecoveryDuration() {
+        return recoveryDuration;
+    }
+
+    /**
+     * Logs back the items that open delivery streams have not yielded, waits for a snapshot being written
+     * in the background and for all logged changes to be durable, and closes the log.
+     * The warehouse must not be used afterwards.
+     *
+     * @throws IOException if the log cannot be forced, or the last snapshot written in the background failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (failure == null && log.failure() == null) {
+                for (LoggedDeliveries stream : List.copyOf(openStreams)) {
+                    stream.logBackRest();
+                }
+            }
+        }
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            try {
+                snapshotWriter.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a warehouse snapshot");
+            }
+        }
+        log.close();
+        if (snapshotFailure != null) {
+            throw snapshotFailure;
+        }
+    }
+
+    /**
+     * @return the sequence number of the last change reflected in the snapshot, or 0 if there is none
+     */
+    private long loadSnapshot() throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshot)) {
+            return 0;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(snapshot), BUFFER_SIZE), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a warehouse snapshot: " + snapshot);
+            }
+            long coveredSequence = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                warehouse.storeParcel(labelCodec.read(in), parcelCodec.read(in), readDate(in));
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Corrupted warehouse snapshot: " + snapshot);
+            }
+            return coveredSequence;
+        }
+    }
+
+    private void replay(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (in.readByte()) {
+                case SUBMIT:
+                    warehouse.storeParcel(labelCodec.read(in), parcelCodec.read(in), readDate(in));
+                    break;
+                case DELIVER:
+                    L label = labelCodec.read(in);
+                    if (warehouse.getParcel(label) != null) {
+                        warehouse.deliverParcel(label);
+                    }
+                    break;
+                case DELIVER_BEFORE:
+                    warehouse.deliverParcelsSubmittedBefore(readDate(in));
+                    break;
+                case DELIVER_AFTER:
+                    warehouse.deliverParcelsSubmittedAfter(readDate(in));
+                    break;
+                case EXPIRE:
+                    warehouse.removeSubmittedUpTo(readDate(in));
+                    break;
+                default:
+                    throw new IOException("Unknown warehouse log record");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ParcelNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Stream<Map.Entry<L, P>> logged(IntFunction<List<L>> nextLabels) {
+        LoggedDeliveries deliveries = new LoggedDeliveries(nextLabels);
+        openStreams.add(deliveries);
+        return StreamSupport.stream(deliveries, false).onClose(deliveries::close);
+    }
+
+    private long logSubmission(L label, P parcel, LocalDateTime submissionDate) {
+        return append(SUBMIT, out -> {
+            labelCodec.write(label, out);
+            parcelCodec.write(parcel, out);
+            writeDate(submissionDate, out);
+        });
+    }
+
+    private void logExpiry(LocalDateTime lastExpiredDate) {
+        append(EXPIRE, out -> writeDate(lastExpiredDate, out));
+    }
+
+    /**
+     * Logs a change that has just been applied, and starts writing a snapshot in the background if enough
+     * changes have been logged. Must be called while holding the monitor of the warehouse, so that changes
+     * are logged in the order they are applied.
+     *
+     * @return the sequence number of the logged change
+     */
+    private long append(byte type, RecordWriter record) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            record.write(out);
+            long sequence = log.append(bytes.toByteArray());
+
+            if (snapshotInterval > 0 && ++changesSinceSnapshot >= snapshotInterval && !snapshotScheduled) {
+                snapshotScheduled = true;
+                snapshotWriter.execute(this::snapshotInBackground);
+            }
+            return sequence;
+        } catch (IOException e) {
+            throw failed(e);
+        } catch (RuntimeException e) {
+            throw failed(new IOException("Could not encode a warehouse change", e));
+        }
+    }
+
+    private void snapshotInBackground() {
+        try {
+            snapshot();
+            snapshotFailure = null;
+        } catch (IOException e) {
+            snapshotFailure = e;
+        } catch (RuntimeException e) {
+            snapshotFailure = new IOException("Could not write a warehouse snapshot", e);
+        } finally {
+            synchronized (this) {
+                snapshotScheduled = false;
+            }
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        try {
+            log.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * Makes the warehouse unusable after a change has been applied but could not be made durable.
+     */
+    private UncheckedIOException failed(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        return new UncheckedIOException("Could not log a warehouse change, the warehouse must be reopened", e);
+    }
+
+    private void checkUsable() {
+        IOException cause = failure != null ? failure : log.failure();
+        if (cause != null) {
+            throw new UncheckedIOException("Logging a warehouse change failed, the warehouse must be reopened",
+                    cause);
+        }
+    }
+
+    private static void writeDate(LocalDateTime date, DataOutput out) throws IOException {
+        out.writeLong(date.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(date.getNano());
+    }
+
+    private static LocalDateTime readDate(DataInput in) throws IOException {
+        long epochSecond = in.readLong();
+        return LocalDateTime.ofEpochSecond(epochSecond, in.readInt(), ZoneOffset.UTC);
+    }
+
+    /**
+     * A read-only view of the parcels by label, backed by the view of the underlying warehouse.
+     */
+    private class ItemsView extends AbstractMap<L, P> {
+
+        private final Set<Map.Entry<L, P>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<L, P>> iterator() {
+                synchronized (DurableMJTExpressWarehouse.this) {
+                    checkUsable();
+                    return List.copyOf(warehouse.getWarehouseItems().entrySet()).iterator();
+                }
+            }
+
+            @Override
+            public int size() {
+                return ItemsView.this.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<L, P>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            synchronized (DurableMJTExpressWarehouse.this) {
+                checkUsable();
+                return warehouse.getWarehouseItems().size();
+            }
+        }
+
+        @Override
+        public boolean containsKey(Object label) {
+            synchronized (DurableMJTExpressWarehouse.this) {
+                checkUsable();
+                return warehouse.getWarehouseItems().containsKey(label);
+            }
+        }
+
+        @Override
+        public P get(Object label) {
+            synchronized (DurableMJTExpressWarehouse.this) {
+                checkUsable();
+                return warehouse.getWarehouseItems().get(label);
+            }
+        }
+
+    }
+
+    /**
+     * A lazy delivery stream that logs its deliveries a page at a time, ahead of the items it yields. A page
+     * of candidates is looked up and logged as delivered while holding the monitor of the warehouse, and made
+     * durable with one fsync. The candidates stay in the warehouse and each is removed just before it is yielded,
+     * if it is still stored as it was when the page was logged. The first page holds one item and every next
+     * one twice as many, up to PagedDeliveries.PAGE_SIZE.
+     * <p>
+     * The candidates that are neither yielded nor changed by other operations are logged back as submissions
+     * when the stream ends, so that the log again agrees with the warehouse.
+     */
+    private class LoggedDeliveries extends Spliterators.AbstractSpliterator<Map.Entry<L, P>> {
+
+        private final IntFunction<List<L>> nextLabels;
+        private List<Map.Entry<L, Map.Entry<LocalDateTime, P>>> page = List.of();
+        private int position;
+        private int pageSize = 1;
+
+        LoggedDeliveries(IntFunction<List<L>> nextLabels) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.nextLabels = nextLabels;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<L, P>> action) {
+            while (true) {
+                Map.Entry<L, P> delivered;
+                if (position == page.size()) {
+                    long sequence = logNextPage();
+                    if (page.isEmpty()) {
+                        return false;
+                    }
+                    awaitDurable(sequence);
+                }
+                synchronized (DurableMJTExpressWarehouse.this) {
+                    checkUsable();
+                    Map.Entry<L, Map.Entry<LocalDateTime, P>> candidate = page.get(position++);
+                    delivered = isUnchanged(candidate) && warehouse.removeParcel(candidate.getKey()) != null
+                            ? Map.entry(candidate.getKey(), candidate.getValue().getValue())
+                            : null;
+                }
+                if (delivered != null) {
+                    action.accept(delivered);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Adds the labels of the items logged as delivered but not yielded yet.
+         * Must be called while holding the monitor of the warehouse.
+         */
+        void addLoggedAhead(Set<L> labels) {
+            for (int i = position; i < page.size(); i++) {
+                if (isUnchanged(page.get(i))) {
+                    labels.add(page.get(i).getKey());
+                }
+            }
+        }
+
+        /**
+         * Logs back the items logged as delivered but not yielded, and ends the stream.
+         * Must be called while holding the monitor of the warehouse.
+         *
+         * @return the sequence number of the last logged change
+         */
+        long logBackRest() {
+            for (int i = position; i < page.size(); i++) {
+                Map.Entry<L, Map.Entry<LocalDateTime, P>> candidate = page.get(i);
+                if (isUnchanged(candidate)) {
+                    L label = candidate.getKey();
+                    P parcel = candidate.getValue().getValue();
+                    LocalDateTime submissionDate = candidate.getValue().getKey();
+                    // storing it again invalidates the deliveries other streams have logged ahead for it
+                    warehouse.storeParcel(label, parcel, submissionDate);
+                    logSubmission(label, parcel, submissionDate);
+                }
+            }
+            page = List.of();
+            position = 0;
+            openStreams.remove(this);
+            return log.lastSequence();
+        }
+
+        void close() {
+            long sequence;
+            synchronized (DurableMJTExpressWarehouse.this) {
+                if (!openStreams.contains(this)) {
+                    return;
+                }
+                checkUsable();
+                sequence = logBackRest();
+            }
+            awaitDurable(sequence);
+        }
+
+        private long logNextPage() {
+            synchronized (DurableMJTExpressWarehouse.this) {
+                checkUsable();
+                List<L> labels = nextLabels.apply(pageSize);
+                List<Map.Entry<L, Map.Entry<LocalDateTime, P>>> candidates = new ArrayList<>(labels.size());
+                for (L label : labels) {
+                    candidates.add(Map.entry(label, warehouse.parcelEntries().get(label)));
+                    append(DELIVER, out -> labelCodec.write(label, out));
+                }
+                page = candidates;
+                position = 0;
+                pageSize = Math.min(2 * pageSize, PagedDeliveries.PAGE_SIZE);
+                if (candidates.isEmpty()) {
+                    openStreams.remove(this);
+                }
+                return log.lastSequence();
+            }
+        }
+
+        private boolean isUnchanged(Map.Entry<L, Map.Entry<LocalDateTime, P>> candidate) {
+            return warehouse.parcelEntries().get(candidate.getKey()) == candidate.getValue();
+        }
+
+    }
+
+    private interface RecordWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    private final MJTExpressWarehouse<L, P> warehouse;
+    private final Path directory;
+    private final ParcelCodec<L> labelCodec;
+    private final ParcelCodec<P> parcelCodec;
+    private final int snapshotInterval;
+    private final ExecutorService snapshotWriter;
+    private final Object snapshotLock = new Object();
+    private final Map<L, P> itemsView = new ItemsView();
+    private final Set<LoggedDeliveries> openStreams = new HashSet<>();
+    private WriteAheadLog log;
+    private int changesSinceSnapshot;
+    private boolean snapshotScheduled;
+    private volatile IOException snapshotFailure;
+    private IOException failure;
+    private Duration recoveryDuration;
+
+}
@@ -0,0 +1,113 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+/**
+ * Decides which parcels a full MJTExpressWarehouse evicts to make room for a submitted parcel.
+ * The warehouse tells the policy about every stored, read and removed parcel, so that a policy can keep
+ * its own order of the parcels and choose a victim without scanning the warehouse.
+ * <p>
+ * A policy may keep state about the parcels of its warehouse, so an instance must not be shared
+ * between warehouses.
+ *
+ * @param <L> the type of the parcel labels
+ */
+public interface EvictionPolicy<L> {
+
+    /**
+     * Frees space in a full warehouse by removing parcels through @storage.
+     *
+     * @param storage the parcels of the full warehouse
+     * @return whether at least one parcel was removed
+     */
+    boolean evict(Storage<L> storage);
+
+    /**
+     * Called after a parcel has been stored, including when it replaced a parcel with the same label.
+     *
+     * @param label the label of the stored parcel
+     */
+    default void parcelStored(L label) {
+    }
+
+    /**
+     * Called after a parcel has been found by getParcel().
+     *
+     * @param label the label of the parcel that has been read
+     */
+    default void parcelAccessed(L label) {
+    }
+
+    /**
+     * Called after a parcel has left the warehouse, whether delivered, expired or evicted.
+     *
+     * @param label the label of the removed parcel
+     */
+    default void parcelRemoved(L label) {
+    }
+
+    /**
+     * The operations of a warehouse available to an eviction policy.
+     *
+     * @param <L> the type of the parcel labels
+     */
+    interface Storage<L> {
+
+        /**
+         * @return the label of the parcel with the earliest submission date, or null if the warehouse is empty.
+         * Takes O(log n) time
+         */
+        L oldestLabel();
+
+        /**
+         * Removes all parcels whose retention period has passed, visiting only the expired parcels.
+         *
+         * @return the number of removed parcels
+         */
+        int removeExpiredParcels();
+
+        /**
+         * Removes the parcel with the given label, if present.
+         *
+         * @param label the label of the evicted parcel
+         * @return whether a parcel was removed
+         */
+        boolean evict(L label);
+
+    }
+
+    /**
+     * @return the default policy, which evicts only parcels whose retention period has passed.
+     * Takes O(log n) time plus the number of expired parcels
+     */
+    static <L> EvictionPolicy<L> retention() {
+        return storage -> storage.removeExpiredParcels() > 0;
+    }
+
+    /**
+     * @return a policy evicting the parcel with the earliest submission date, in O(log n) time
+     */
+    static <L> EvictionPolicy<L> oldestFirst() {
+        return EvictionPolicy::evictOldest;
+    }
+
+    /**
+     * @return a policy evicting all parcels whose retention period has passed or, if there are none,
+     * the parcel with the earliest submission date
+     */
+    static <L> EvictionPolicy<L> expiredFirstThenOldest() {
+        return storage -> storage.removeExpiredParcels() > 0 || evictOldest(storage);
+    }
+
+    /**
+     * @return a new policy evicting the parcel that has been stored or read by getParcel() least recently,
+     * in O(1) time
+     */
+    static <L> EvictionPolicy<L> leastRecentlyUsed() {
+        return new LeastRecentlyUsedPolicy<>();
+    }
+
+    private static <L> boolean evictOldest(Storage<L> storage) {
+        L oldest = storage.oldestLabel();
+        return oldest != null && storage.evict(oldest);
+    }
+
+}
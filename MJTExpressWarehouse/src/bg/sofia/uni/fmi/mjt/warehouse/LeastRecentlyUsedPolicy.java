@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evicts the parcel used least recently. The labels are kept in a LinkedHashMap in access order,
+ * so that both recording a use and finding the victim take O(1) time.
+ */
+class LeastRecentlyUsedPolicy<L> implements EvictionPolicy<L> {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Map<L, Boolean> labels = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    @Override
+    public boolean evict(Storage<L> storage) {
+        Iterator<L> leastRecent = labels.keySet().iterator();
+        return leastRecent.hasNext() && storage.evict(leastRecent.next());
+    }
+
+    @Override
+    public void parcelStored(L label) {
+        labels.put(label, Boolean.TRUE);
+    }
+
+    @Override
+    public void parcelAccessed(L label) {
+        labels.get(label);
+    }
+
+    @Override
+    public void parcelRemoved(L label) {
+        labels.remove(label);
+    }
+
+}
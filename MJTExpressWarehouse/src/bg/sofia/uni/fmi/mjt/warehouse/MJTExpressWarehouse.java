@@ -3,13 +3,46 @@ package bg.sofia.uni.fmi.mjt.warehouse;
 import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
 import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
 
+import java.time.Clock;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
+/**
+ * A warehouse keeping its parcels by label, with a secondary index of labels ordered by submission date.
+ * The index lets deliveries of all parcels submitted before or after a date visit only those parcels
+ * and detach them from the index in one operation.
+ * <p>
+ * Since parcels expire in the order they were submitted, the index also yields the expired parcels
+ * as its oldest range, so expiry costs O(log n) plus the number of expired parcels. Expired parcels are
+ * removed when a submission finds the warehouse full, or periodically with scheduleExpiry().
+ * <p>
+ * Which parcels a full warehouse evicts is decided by an EvictionPolicy. The default policy evicts only
+ * expired parcels, so a submission fails while the warehouse is full of parcels within their retention period.
+ * <p>
+ * The warehouse is not thread-safe. Once scheduleExpiry() has been called, expiry runs on the scheduler's thread
+ * while holding the monitor of the warehouse, so every other access - including reads of the maps and streams
+ * it returns - must synchronize on the warehouse as well. ConcurrentMJTExpressWarehouse needs no such locking.
+ */
 public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P> {
 
     /**
@@ -21,8 +54,39 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
      *                        was submitted. After that time passes, the parcel can be removed from the warehouse
      */
     public MJTExpressWarehouse(int capacity, int retentionPeriod) {
+        this(capacity, retentionPeriod, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Creates a new instance of MJTExpressWarehouse with the given characteristics that tells the current date
+     * by the given clock
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock           the clock providing the current date
+     */
+    public MJTExpressWarehouse(int capacity, int retentionPeriod, Clock clock) {
+        this(capacity, retentionPeriod, clock, EvictionPolicy.retention());
+    }
+
+    /**
+     * Creates a new instance of MJTExpressWarehouse with the given characteristics that tells the current date
+     * by the given clock and evicts parcels by the given policy when it is full
+     *
+     * @param capacity        the total number of parcels that the warehouse can store
+     * @param retentionPeriod the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock           the clock providing the current date
+     * @param evictionPolicy  the policy choosing the parcels evicted to store a parcel in the full warehouse.
+     *                        It must not be used by another warehouse
+     */
+    public MJTExpressWarehouse(int capacity, int retentionPeriod, Clock clock, EvictionPolicy<L> evictionPolicy) {
+        if (clock == null || evictionPolicy == null) {
+            throw new IllegalArgumentException();
+        }
         this.capacity = capacity;
         this.retentionPeriod = retentionPeriod;
+        this.clock = clock;
+        this.evictionPolicy = evictionPolicy;
     }
 
     /**
@@ -37,10 +101,11 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
      */
     @Override
     public void submitParcel(L label, P parcel, LocalDateTime submissionDate) throws CapacityExceededException {
-        if (label == null || parcel == null || submissionDate == null || submissionDate.isAfter(LocalDateTime.now())) {
+        if (label == null || parcel == null || submissionDate == null
+                || submissionDate.isAfter(LocalDateTime.now(clock))) {
             throw new IllegalArgumentException();
         } else if (isFreeCapacity()) {
-            parcels.put(label, new AbstractMap.SimpleEntry<>(submissionDate, parcel));
+            storeParcel(label, parcel, submissionDate);
 
         } else {
             throw new CapacityExceededException();
@@ -57,10 +122,13 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
     public P getParcel(L label) {
         if (label == null) {
             throw new IllegalArgumentException();
-        } else if (parcels.containsKey(label)) {
-            return parcels.get(label).getValue();
-        } else {
+        }
+        Map.Entry<LocalDateTime, P> stored = parcels.get(label);
+        if (stored == null) {
             return null;
+        } else {
+            evictionPolicy.parcelAccessed(label);
+            return stored.getValue();
         }
     }
 
@@ -76,13 +144,12 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
     public P deliverParcel(L label) throws ParcelNotFoundException {
         if (label == null) {
             throw new IllegalArgumentException();
-        } else if (!parcels.containsKey(label)) {
+        }
+        Map.Entry<LocalDateTime, P> delivered = removeParcel(label);
+        if (delivered == null) {
             throw new ParcelNotFoundException();
-        } else {
-            P parcel = getParcel(label);
-            parcels.remove(label);
-            return parcel;
         }
+        return delivered.getValue();
     }
 
     /**
@@ -97,15 +164,50 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
     }
 
     /**
-     * @return a Map of all items in the warehouse. if there are no items, the returned map is empty
+     * @return a read-only view of all items in the warehouse, which reflects later changes of the warehouse
+     * without copying the items. if there are no items, the returned map is empty
      */
     @Override
     public Map<L, P> getWarehouseItems() {
-        Map<L, P> allParcels = new HashMap<>();
-        for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : parcels.entrySet()) {
-            allParcels.put(entry.getKey(), entry.getValue().getValue());
+        return itemsView;
+    }
+
+    /**
+     * Counts the items submitted in the given time window without removing them. Only the submission dates
+     * in the window are visited.
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        int count = 0;
+        for (Set<L> labels : window(from, to).values()) {
+            count += labels.size();
         }
-        return allParcels;
+        return count;
+    }
+
+    /**
+     * Returns the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to, in the order they were submitted.
+     * If there are no such items, the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        Map<L, P> found = new LinkedHashMap<>();
+        for (Set<L> labels : window(from, to).values()) {
+            for (L label : labels) {
+                found.put(label, parcels.get(label).getValue());
+            }
+        }
+        return found;
     }
 
     /**
@@ -121,23 +223,7 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
         if (before == null) {
             throw new IllegalArgumentException();
         } else {
-
-            Map<L, P> beforeParcels = new HashMap<>();
-
-            for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : parcels.entrySet()) {
-                L label = entry.getKey();
-                LocalDateTime parcelDate = entry.getValue().getKey();
-                P parcel = entry.getValue().getValue();
-
-                if (parcelDate.isBefore(before)) {
-                    beforeParcels.put(label, parcel);
-                }
-            }
-            for (Map.Entry<L, P> parcel : beforeParcels.entrySet()) {
-                parcels.remove(parcel.getKey());
-            }
-
-            return beforeParcels;
+            return deliverRange(submissionIndex.headMap(before, false));
         }
     }
 
@@ -154,54 +240,363 @@ public class MJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P>
         if (after == null) {
             throw new IllegalArgumentException();
         } else {
+            return deliverRange(submissionIndex.tailMap(after, false));
+        }
+    }
+
+    /**
+     * Lazily removes the items submitted before the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param before the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return streamRange(submissionIndex.headMap(before, false));
+        }
+    }
 
-            Map<L, P> afterParcels = new HashMap<>();
+    /**
+     * Lazily removes the items submitted after the given date from the warehouse, in the order they were submitted.
+     * Each item is removed just before the stream yields it, so the items that a stream stopped early has not
+     * yielded stay in the warehouse.
+     *
+     * @param after  the date that is used for filtering the items
+     * @return a sequential stream of the delivered items as label-parcel entries
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Stream<Map.Entry<L, P>> streamDeliveriesSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        } else {
+            return streamRange(submissionIndex.tailMap(after, false));
+        }
+    }
 
-            for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : parcels.entrySet()) {
-                L label = entry.getKey();
-                LocalDateTime parcelDate = entry.getValue().getKey();
-                P parcel = entry.getValue().getValue();
+    /**
+     * Adds the provided parcels, all submitted at the given date, as new items in the warehouse.
+     * The parcels are stored in the iteration order of the map until the warehouse is full and no item
+     * can be evicted. The remaining parcels are not stored.
+     * The batch is validated and the clock is read once, and once eviction fails the remaining parcels are
+     * rejected without trying to evict again.
+     *
+     * @param batch          the parcels that should be stored, by label
+     * @param submissionDate the date when the parcels were submitted into the warehouse
+     * @return the labels of the parcels that were not stored for lack of capacity. Empty if all parcels are stored
+     * @throws IllegalArgumentException if the provided date is a date in the future, or any of the parameters,
+     *                                  labels or parcels is null. No parcel is stored then
+     */
+    @Override
+    public Set<L> submitParcels(Map<L, P> batch, LocalDateTime submissionDate) {
+        BatchArguments.check(batch, submissionDate);
+        if (submissionDate.isAfter(LocalDateTime.now(clock))) {
+            throw new IllegalArgumentException();
+        }
+        Set<L> rejected = new HashSet<>();
+        for (Map.Entry<L, P> entry : batch.entrySet()) {
+            if (rejected.isEmpty() && isFreeCapacity()) {
+                storeParcel(entry.getKey(), entry.getValue(), submissionDate);
+            } else {
+                rejected.add(entry.getKey());
+            }
+        }
+        return rejected;
+    }
 
-                if (parcelDate.isAfter(after)) {
-                    afterParcels.put(label, parcel);
-                }
+    /**
+     * Removes the parcels with the given labels from the warehouse and returns them.
+     * Labels of parcels that are not in the warehouse are skipped.
+     *
+     * @param labels the labels of the parcels for delivery
+     * @return the delivered parcels by label. If none of the parcels is in the warehouse, the returned Map is empty
+     * @throws IllegalArgumentException if the given collection or any of the labels is null.
+     *                                  No parcel is delivered then
+     */
+    @Override
+    public Map<L, P> deliverParcels(Collection<L> labels) {
+        BatchArguments.check(labels);
+        Map<L, P> delivered = new HashMap<>();
+        for (L label : labels) {
+            Map.Entry<LocalDateTime, P> removed = removeParcel(label);
+            if (removed != null) {
+                delivered.put(label, removed.getValue());
             }
-            for (Map.Entry<L, P> parcel : afterParcels.entrySet()) {
-                parcels.remove(parcel.getKey());
+        }
+        return delivered;
+    }
+
+    /**
+     * Removes all parcels whose retention period has passed, i.e. which were submitted more than
+     * retentionPeriod whole days ago. Only the expired parcels are visited.
+     *
+     * @return the number of removed parcels
+     */
+    public int removeExpiredParcels() {
+        LocalDateTime lastExpiredDate = LocalDateTime.now(clock).minusDays(retentionPeriod + 1L);
+        int removed = removeSubmittedUpTo(lastExpiredDate);
+        if (removed > 0 && expiryListener != null) {
+            expiryListener.accept(lastExpiredDate);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes expired parcels on @scheduler every @period, so that submissions rarely find the warehouse full
+     * of expired parcels. The scheduled removal holds the monitor of the warehouse, so while it is scheduled
+     * every other access to the warehouse must synchronize on it as well, as described for the class.
+     *
+     * @param scheduler the scheduler running the removal
+     * @param period    the time between two removals
+     * @return the scheduled removal, to be cancelled when the warehouse is no longer used
+     */
+    public ScheduledFuture<?> scheduleExpiry(ScheduledExecutorService scheduler, Duration period) {
+        if (scheduler == null || period == null || period.isNegative() || period.isZero()) {
+            throw new IllegalArgumentException();
+        }
+        return scheduler.scheduleAtFixedRate(() -> {
+            synchronized (this) {
+                removeExpiredParcels();
             }
+        }, period.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+    }
 
-            return afterParcels;
+    /**
+     * Removes all parcels submitted at or before @lastRemovedDate, e.g. to repeat an expiry.
+     *
+     * @return the number of removed parcels
+     */
+    int removeSubmittedUpTo(LocalDateTime lastRemovedDate) {
+        return removeRange(submissionIndex.headMap(lastRemovedDate, true), null);
+    }
+
+    /**
+     * Stores a parcel bypassing validation and the capacity check, e.g. to restore a previously
+     * accepted parcel.
+     */
+    void storeParcel(L label, P parcel, LocalDateTime submissionDate) {
+        Map.Entry<LocalDateTime, P> replaced =
+                parcels.put(label, new AbstractMap.SimpleEntry<>(submissionDate, parcel));
+        if (replaced != null) {
+            removeFromIndex(label, replaced.getKey());
         }
+        submissionIndex.computeIfAbsent(submissionDate, date -> new HashSet<>()).add(label);
+        evictionPolicy.parcelStored(label);
+    }
+
+    /**
+     * @return a read-only view of the stored parcels and their submission dates by label
+     */
+    Map<L, Map.Entry<LocalDateTime, P>> parcelEntries() {
+        return Collections.unmodifiableMap(parcels);
+    }
+
+    /**
+     * @return the labels of at most @limit parcels submitted before @before, in submission order,
+     * without removing them
+     */
+    List<L> labelsSubmittedBefore(LocalDateTime before, int limit) {
+        return firstLabels(submissionIndex.headMap(before, false), limit);
     }
 
-    private boolean retentionPeriodExpired(LocalDateTime submissionDate) {
-        return (Duration.between(submissionDate, LocalDateTime.now()).toDays() > retentionPeriod);
+    /**
+     * @return the labels of at most @limit parcels submitted after @after, in submission order,
+     * without removing them
+     */
+    List<L> labelsSubmittedAfter(LocalDateTime after, int limit) {
+        return firstLabels(submissionIndex.tailMap(after, false), limit);
     }
 
-    private void removeExpiredParcels() {
+    /**
+     * @param listener receives the last expired submission date whenever expiry removes parcels
+     */
+    void setExpiryListener(Consumer<LocalDateTime> listener) {
+        this.expiryListener = listener;
+    }
 
-        for (Map.Entry<L, Map.Entry<LocalDateTime, P>> entry : parcels.entrySet()) {
-            L label = entry.getKey();
-            LocalDateTime parcelDate = entry.getValue().getKey();
+    private Map<L, P> deliverRange(NavigableMap<LocalDateTime, Set<L>> range) {
+        Map<L, P> delivered = new HashMap<>();
+        removeRange(range, delivered);
+        return delivered;
+    }
 
-            if (retentionPeriodExpired(parcelDate)) {
-                parcels.remove(label);
+    private NavigableMap<LocalDateTime, Set<L>> window(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        return from.isBefore(to) ? submissionIndex.subMap(from, true, to, false) : Collections.emptyNavigableMap();
+    }
+
+    /**
+     * Streams the parcels of a range of the submission index, looking up a page of labels from the start
+     * of the range whenever the previous page has been delivered.
+     */
+    private Stream<Map.Entry<L, P>> streamRange(NavigableMap<LocalDateTime, Set<L>> range) {
+        return PagedDeliveries.stream(() -> firstLabels(range, PagedDeliveries.PAGE_SIZE), label -> {
+            Map.Entry<LocalDateTime, P> stored = parcels.get(label);
+            if (stored == null || !range.containsKey(stored.getKey())) {
+                return null;
+            }
+            removeParcel(label);
+            return Map.entry(label, stored.getValue());
+        });
+    }
+
+    private List<L> firstLabels(NavigableMap<LocalDateTime, Set<L>> range, int limit) {
+        List<L> labels = new ArrayList<>();
+        for (Set<L> sameDate : range.values()) {
+            for (L label : sameDate) {
+                if (labels.size() == limit) {
+                    return labels;
+                }
+                labels.add(label);
+            }
+        }
+        return labels;
+    }
 
+    /**
+     * Removes the parcels of a range of the submission index from the warehouse, visiting only
+     * the parcels in the range, and detaches the whole range from the index at once.
+     *
+     * @param range     a view of the submission index
+     * @param delivered the map receiving the removed parcels, or null if they are discarded
+     * @return the number of removed parcels
+     */
+    private int removeRange(NavigableMap<LocalDateTime, Set<L>> range, Map<L, P> delivered) {
+        int removed = 0;
+        for (Set<L> labels : range.values()) {
+            for (L label : labels) {
+                P parcel = parcels.remove(label).getValue();
+                evictionPolicy.parcelRemoved(label);
+                if (delivered != null) {
+                    delivered.put(label, parcel);
+                }
+                removed++;
             }
         }
+        range.clear();
+        return removed;
+    }
+
+    /**
+     * @return the removed parcel with its submission date, or null if there is no parcel with @label
+     */
+    Map.Entry<LocalDateTime, P> removeParcel(L label) {
+        Map.Entry<LocalDateTime, P> removed = parcels.remove(label);
+        if (removed != null) {
+            removeFromIndex(label, removed.getKey());
+            evictionPolicy.parcelRemoved(label);
+        }
+        return removed;
+    }
+
+    private void removeFromIndex(L label, LocalDateTime submissionDate) {
+        Set<L> labels = submissionIndex.get(submissionDate);
+        labels.remove(label);
+        if (labels.isEmpty()) {
+            submissionIndex.remove(submissionDate);
+        }
     }
 
     private boolean isFreeCapacity() {
         if (parcels.size() < capacity) {
             return true;
         } else {
-            removeExpiredParcels();
+            evictionPolicy.evict(policyStorage);
             return parcels.size() < capacity;
         }
     }
 
+    /**
+     * A read-only view of the parcels by label, backed by the map of stored parcels.
+     */
+    private class ItemsView extends AbstractMap<L, P> {
+
+        private final Set<Map.Entry<L, P>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<L, P>> iterator() {
+                Iterator<Map.Entry<L, Map.Entry<LocalDateTime, P>>> stored = parcels.entrySet().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return stored.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<L, P> next() {
+                        Map.Entry<L, Map.Entry<LocalDateTime, P>> entry = stored.next();
+                        return Map.entry(entry.getKey(), entry.getValue().getValue());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return parcels.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<L, P>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            return parcels.size();
+        }
+
+        @Override
+        public boolean containsKey(Object label) {
+            return parcels.containsKey(label);
+        }
+
+        @Override
+        public P get(Object label) {
+            Map.Entry<LocalDateTime, P> stored = parcels.get(label);
+            return stored == null ? null : stored.getValue();
+        }
+
+    }
+
+    /**
+     * The view of the warehouse through which the eviction policy removes parcels.
+     */
+    private class PolicyStorage implements EvictionPolicy.Storage<L> {
+
+        @Override
+        public L oldestLabel() {
+            Map.Entry<LocalDateTime, Set<L>> oldest = submissionIndex.firstEntry();
+            return oldest == null ? null : oldest.getValue().iterator().next();
+        }
+
+        @Override
+        public int removeExpiredParcels() {
+            return MJTExpressWarehouse.this.removeExpiredParcels();
+        }
+
+        @Override
+        public boolean evict(L label) {
+            return removeParcel(label) != null;
+        }
+
+    }
+
     private int capacity;
     private int retentionPeriod;
+    private Clock clock;
+    private EvictionPolicy<L> evictionPolicy;
+    private EvictionPolicy.Storage<L> policyStorage = new PolicyStorage();
+    private Map<L, P> itemsView = new ItemsView();
+    private Consumer<LocalDateTime> expiryListener;
     private Map<L, Map.Entry<LocalDateTime, P>> parcels = new HashMap<>();
+    private NavigableMap<LocalDateTime, Set<L>> submissionIndex = new TreeMap<>();
 
 }
@@ -0,0 +1,71 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazy stream of deliveries from a warehouse. The candidates for delivery are looked up a page at a time,
+ * and each of them is removed from the warehouse only when the stream is about to yield it. A stream that is
+ * not consumed to the end therefore leaves the remaining parcels in the warehouse, and memory stays bounded
+ * by the page size however many parcels are delivered.
+ *
+ * @param <C> the type of the candidates, which identify parcels in the warehouse
+ * @param <L> the type of the parcel labels
+ * @param <P> the type of the parcels
+ */
+final class PagedDeliveries<C, L, P> extends Spliterators.AbstractSpliterator<Map.Entry<L, P>> {
+
+    static final int PAGE_SIZE = 256;
+
+    private final Supplier<List<C>> nextPage;
+    private final Function<C, Map.Entry<L, P>> delivery;
+    private Iterator<C> page = Collections.emptyIterator();
+    private boolean exhausted;
+
+    private PagedDeliveries(Supplier<List<C>> nextPage, Function<C, Map.Entry<L, P>> delivery) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.nextPage = nextPage;
+        this.delivery = delivery;
+    }
+
+    /**
+     * @param nextPage returns the next at most PAGE_SIZE candidates in submission order, or an empty list
+     *                 if there are no more. It is called again only after all candidates of a page are visited
+     * @param delivery removes the parcel of a candidate and returns it with its label, or returns null
+     *                 if the candidate is no longer in the warehouse or has left the delivered range
+     * @return a sequential stream of the delivered parcels by label
+     */
+    static <C, L, P> Stream<Map.Entry<L, P>> stream(Supplier<List<C>> nextPage,
+                                                    Function<C, Map.Entry<L, P>> delivery) {
+        return StreamSupport.stream(new PagedDeliveries<>(nextPage, delivery), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<L, P>> action) {
+        while (true) {
+            if (!page.hasNext()) {
+                List<C> candidates = exhausted ? List.of() : nextPage.get();
+                if (candidates.isEmpty()) {
+                    exhausted = true;
+                    return false;
+                }
+                page = candidates.iterator();
+            }
+            Map.Entry<L, P> delivered = delivery.apply(page.next());
+            if (delivered != null) {
+                action.accept(delivered);
+                return true;
+            }
+        }
+    }
+
+}
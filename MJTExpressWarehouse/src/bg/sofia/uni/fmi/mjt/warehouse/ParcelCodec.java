@@ -0,0 +1,60 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts labels or parcels to and from bytes, so that a DurableMJTExpressWarehouse can persist them.
+ *
+ * @param <T> the type of the converted values
+ */
+public interface ParcelCodec<T> {
+
+    /**
+     * @param value the value to be written
+     * @param out   the destination of the value
+     */
+    void write(T value, DataOutput out) throws IOException;
+
+    /**
+     * @param in the source of a value written by write()
+     * @return the value read
+     */
+    T read(DataInput in) throws IOException;
+
+    /**
+     * @return a codec for strings in modified UTF-8
+     */
+    static ParcelCodec<String> strings() {
+        return new ParcelCodec<>() {
+            @Override
+            public void write(String value, DataOutput out) throws IOException {
+                out.writeUTF(value);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        };
+    }
+
+    /**
+     * @return a codec for longs
+     */
+    static ParcelCodec<Long> longs() {
+        return new ParcelCodec<>() {
+            @Override
+            public void write(Long value, DataOutput out) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long read(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,449 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * One logical warehouse spread over several independent warehouses, its shards. A parcel is stored in the
+ * home shard chosen by the hash of its label. If the home shard is full, the parcel spills over to the shard
+ * with the most space left, and a directory remembers where spilled parcels are, so that getParcel() and
+ * deliverParcel() ask a single shard. Range deliveries ask all shards in parallel and merge their results.
+ * <p>
+ * The facade is thread-safe. Every shard is accessed while holding its monitor, so operations on different
+ * shards run concurrently, and shards such as MJTExpressWarehouse need no synchronization of their own.
+ * Operations on the same label are serialized by a striped lock, which keeps the directory consistent
+ * with the shards.
+ * <p>
+ * The directory only holds spilled labels. An entry of a parcel that has expired in its shard is dropped
+ * the next time its label is used.
+ */
+public class ShardedMJTExpressWarehouse<L, P> implements DeliveryServiceWarehouse<L, P> {
+
+    private static final int LABEL_LOCKS = 64;
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    /**
+     * Creates a warehouse over the given shards, which must all have the same capacity and
+     * must not be used directly afterwards
+     *
+     * @param shards the warehouses holding the parcels
+     */
+    public ShardedMJTExpressWarehouse(List<? extends DeliveryServiceWarehouse<L, P>> shards) {
+        if (shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException();
+        }
+        for (DeliveryServiceWarehouse<L, P> shard : shards) {
+            if (shard == null) {
+                throw new IllegalArgumentException();
+            }
+        }
+        this.shards = List.copyOf(shards);
+        for (int i = 0; i < labelLocks.length; i++) {
+            labelLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Creates a warehouse over @shardCount new MJTExpressWarehouses with the given characteristics
+     *
+     * @param shardCount       the number of shards
+     * @param capacityPerShard the total number of parcels that a shard can store
+     * @param retentionPeriod  the maximum number of days for which a parcel can stay in the warehouse
+     * @param clock            the clock providing the current date
+     */
+    public static <L, P> ShardedMJTExpressWarehouse<L, P> of(int shardCount, int capacityPerShard,
+                                                             int retentionPeriod, Clock clock) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException();
+        }
+        List<MJTExpressWarehouse<L, P>> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new MJTExpressWarehouse<>(capacityPerShard, retentionPeriod, clock));
+        }
+        return new ShardedMJTExpressWarehouse<>(shards);
+    }
+
+    /**
+     * Adds the provided parcels with the given label as a new item in the warehouse.
+     *
+     * @param label          the unique identifier of the parcel.
+     * @param parcel         the parcel that should be stored. If the storage is full, the parcel can still be stored,
+     *                       if there is at least one item that can be evicted
+     * @param submissionDate the date when the parcel was submitted into the warehouse
+     * @throws CapacityExceededException if there is no capacity left in the warehouse
+     * @throws IllegalArgumentException  if the provided date is a date in the future, or any of the parameters is null
+     */
+    @Override
+    public void submitParcel(L label, P parcel, LocalDateTime submissionDate) throws CapacityExceededException {
+        if (label == null || parcel == null || submissionDate == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lockOf(label)) {
+            int current = shardOf(label);
+            if (trySubmit(current, label, parcel, submissionDate)) {
+                return;
+            }
+            for (int candidate : shardsByMostSpaceLeft()) {
+                if (candidate != current && trySubmit(candidate, label, parcel, submissionDate)) {
+                    // a parcel with the same label must not stay behind in the full shard
+                    removeFrom(current, label);
+                    if (candidate == homeShardOf(label)) {
+                        spilled.remove(label);
+                    } else {
+                        spilled.put(label, candidate);
+                    }
+                    return;
+                }
+            }
+            throw new CapacityExceededException();
+        }
+    }
+
+    /**
+     * @param label the label of the wanted parcel
+     * @return the parcel with label equal to the provided one. Returns null if no parcel is found
+     * @throws IllegalArgumentException when the given label is null
+     */
+    @Override
+    public P getParcel(L label) {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lockOf(label)) {
+            int index = shardOf(label);
+            DeliveryServiceWarehouse<L, P> shard = shards.get(index);
+            P parcel;
+            synchronized (shard) {
+                parcel = shard.getParcel(label);
+            }
+            if (parcel == null) {
+                spilled.remove(label, index);
+            }
+            return parcel;
+        }
+    }
+
+    /**
+     * Removes the parcel with the given label from the warehouse and returns it
+     *
+     * @param label the label of the parcel for delivery
+     * @return the Parcel with label equal to the given one
+     * @throws ParcelNotFoundException  when a parcel with the given label does not exist in the warehouse
+     * @throws IllegalArgumentException then the given label is null
+     */
+    @Override
+    public P deliverParcel(L label) throws ParcelNotFoundException {
+        if (label == null) {
+            throw new IllegalArgumentException();
+        }
+        synchronized (lockOf(label)) {
+            DeliveryServiceWarehouse<L, P> shard = shards.get(shardOf(label));
+            try {
+                synchronized (shard) {
+                    return shard.deliverParcel(label);
+                }
+            } finally {
+                spilled.remove(label);
+            }
+        }
+    }
+
+    /**
+     * @return the free space in the warehouse as a decimal fraction.
+     * It should be a number between 0 and 1 rounded to two decimal places
+     */
+    @Override
+    public double getWarehouseSpaceLeft() {
+        double spaceLeft = 0;
+        for (DeliveryServiceWarehouse<L, P> shard : shards) {
+            synchronized (shard) {
+                spaceLeft += shard.getWarehouseSpaceLeft();
+            }
+        }
+        return (double) (Math.round(spaceLeft / shards.size() * 100)) / 100;
+    }
+
+    /**
+     * @return a Map of all items in the warehouse. if there are no items, the returned map is empty.
+     * The map is a read-only view whose reads lock the shards they ask, so size() and get() copy nothing.
+     * An iterator walks a copy of the items of every shard, each taken while holding the monitor of the shard
+     */
+    @Override
+    public Map<L, P> getWarehouseItems() {
+        return itemsView;
+    }
+
+    /**
+     * Counts the items submitted in the given time window without removing them
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the number of items submitted at or after @from and before @to
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public int countParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        int count = 0;
+        for (DeliveryServiceWarehouse<L, P> shard : shards) {
+            synchronized (shard) {
+                count += shard.countParcelsSubmittedBetween(from, to);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the items submitted in the given time window without removing them. The items of every shard
+     * are in the order they were submitted, but the shards follow one another.
+     *
+     * @param from the start of the window, inclusive
+     * @param to   the end of the window, exclusive
+     * @return the items submitted at or after @from and before @to. If there are no such items,
+     * the returned Map is empty
+     * @throws IllegalArgumentException when any of the dates is null
+     */
+    @Override
+    public Map<L, P> getParcelsSubmittedBetween(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException();
+        }
+        Map<L, P> found = new LinkedHashMap<>();
+        for (DeliveryServiceWarehouse<L, P> shard : shards) {
+            synchronized (shard) {
+                found.putAll(shard.getParcelsSubmittedBetween(from, to));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Removes all items submitted before the given date from the warehouse, and returns them
+     *
+     * @param before the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted before the given date,
+     * the returned Map is empty. If the given date is in the future, all items in the warehouse are returned
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedBefore(LocalDateTime before) {
+        if (before == null) {
+            throw new IllegalArgumentException();
+        }
+        return deliverFromAllShards(shard -> shard.deliverParcelsSubmittedBefore(before));
+    }
+
+    /**
+     * Removes all items submitted after the given date from the warehouse, and returns them
+     *
+     * @param after the date that is used for filtering the items
+     * @return the items that will be delivered. If there are no items submitted after the given date,
+     * the returned Map is empty. An empty Map is returned if the given date is in the future
+     * @throws IllegalArgumentException when the given date is null
+     */
+    @Override
+    public Map<L, P> deliverParcelsSubmittedAfter(LocalDateTime after) {
+        if (after == null) {
+            throw new IllegalArgumentException();
+        }
+        return deliverFromAllShards(shard -> shard.deliverParcelsSubmittedAfter(after));
+    }
+
+    /**
+     * @return the index of the shard that holds or would hold the parcel with @label
+     */
+    int shardOf(L label) {
+        return spilled.getOrDefault(label, homeShardOf(label));
+    }
+
+    /**
+     * @return the index of the shard chosen for @label by its hash
+     */
+    int homeShardOf(L label) {
+        return Math.floorMod(spread(label), shards.size());
+    }
+
+    private Map<L, P> deliverFromAllShards(Function<DeliveryServiceWarehouse<L, P>, Map<L, P>> delivery) {
+        return IntStream.range(0, shards.size())
+                .parallel()
+                .mapToObj(index -> {
+                    DeliveryServiceWarehouse<L, P> shard = shards.get(index);
+                    Map<L, P> delivered;
+                    synchronized (shard) {
+                        delivered = delivery.apply(shard);
+                    }
+                    if (!spilled.isEmpty()) {
+                        forgetDelivered(index, delivered);
+                    }
+                    return delivered;
+                })
+                .collect(HashMap::new, Map::putAll, Map::putAll);
+    }
+
+    /**
+     * Drops the directory entries of spilled parcels that a range delivery has removed from shard @index,
+     * unless their labels have been submitted to the shard again in the meantime.
+     */
+    private void forgetDelivered(int index, Map<L, P> delivered) {
+        DeliveryServiceWarehouse<L, P> shard = shards.get(index);
+        for (L label : delivered.keySet()) {
+            // a submit that has stored the parcel in the shard enters it in the directory only afterwards
+            synchronized (lockOf(label)) {
+                Integer spilledTo = spilled.get(label);
+                if (spilledTo != null && spilledTo == index) {
+                    boolean stored;
+                    synchronized (shard) {
+                        // not getParcel(), which would count as an access for the eviction policy of the shard
+                        stored = shard.getWarehouseItems().containsKey(label);
+                    }
+                    if (!stored) {
+                        spilled.remove(label, index);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean trySubmit(int index, L label, P parcel, LocalDateTime submissionDate) {
+        DeliveryServiceWarehouse<L, P> shard = shards.get(index);
+        synchronized (shard) {
+            try {
+                shard.submitParcel(label, parcel, submissionDate);
+                return true;
+            } catch (CapacityExceededException e) {
+                return false;
+            }
+        }
+    }
+
+    private void removeFrom(int index, L label) {
+        DeliveryServiceWarehouse<L, P> shard = shards.get(index);
+        synchronized (shard) {
+            try {
+                shard.deliverParcel(label);
+            } catch (ParcelNotFoundException e) {
+                // there was no parcel with this label
+            }
+        }
+    }
+
+    /**
+     * @return the indices of the shards, those holding the fewest items first. The shards have the same capacity,
+     * so these have the most space left, and unlike the rounded getWarehouseSpaceLeft() the count tells apart
+     * shards that differ by a few items.
+     */
+    private List<Integer> shardsByMostSpaceLeft() {
+        int[] stored = new int[shards.size()];
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            DeliveryServiceWarehouse<L, P> shard = shards.get(i);
+            synchronized (shard) {
+                stored[i] = shard.getWarehouseItems().size();
+            }
+            indices.add(i);
+        }
+        indices.sort(Comparator.comparingInt(index -> stored[index]));
+        return indices;
+    }
+
+    /**
+     * A read-only view of the parcels of all shards by label.
+     */
+    private class ItemsView extends AbstractMap<L, P> {
+
+        private final Set<Map.Entry<L, P>> entries = new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<L, P>> iterator() {
+                List<Map.Entry<L, P>> copy = new ArrayList<>();
+                for (DeliveryServiceWarehouse<L, P> shard : shards) {
+                    synchronized (shard) {
+                        for (Map.Entry<L, P> entry : shard.getWarehouseItems().entrySet()) {
+                            copy.add(Map.entry(entry.getKey(), entry.getValue()));
+                        }
+                    }
+                }
+                return Collections.unmodifiableList(copy).iterator();
+            }
+
+            @Override
+            public int size() {
+                return ItemsView.this.size();
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<L, P>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (DeliveryServiceWarehouse<L, P> shard : shards) {
+                synchronized (shard) {
+                    size += shard.getWarehouseItems().size();
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object label) {
+            return get(label) != null;
+        }
+
+        /**
+         * Reads the parcel from the items of its shard rather than with getParcel(), so that looking at
+         * the view does not count as an access for the eviction policy of the shard.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public P get(Object label) {
+            if (label == null) {
+                return null;
+            }
+            synchronized (lockOf((L) label)) {
+                DeliveryServiceWarehouse<L, P> shard = shards.get(shardOf((L) label));
+                synchronized (shard) {
+                    return shard.getWarehouseItems().get(label);
+                }
+            }
+        }
+
+    }
+
+    private Object lockOf(L label) {
+        return labelLocks[spread(label) & (LABEL_LOCKS - 1)];
+    }
+
+    private static int spread(Object label) {
+        int hash = label.hashCode() * HASH_MULTIPLIER;
+        return hash ^ (hash >>> Short.SIZE);
+    }
+
+    private final List<DeliveryServiceWarehouse<L, P>> shards;
+    private final Object[] labelLocks = new Object[LABEL_LOCKS];
+    private final ConcurrentMap<L, Integer> spilled = new ConcurrentHashMap<>();
+    private final Map<L, P> itemsView = new ItemsView();
+
+}
@@ -0,0 +1,317 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records with group commit. Appending only copies a record into memory;
+ * awaitDurable() writes and forces all records appended so far with a single fsync, so threads waiting
+ * at the same time share the cost of one fsync instead of paying one each.
+ * <p>
+ * Every record is framed as its payload length, its sequence number, its payload and a CRC32 of the
+ * sequence number and payload. A record torn by a crash fails its checksum and ends the log on recovery.
+ * <p>
+ * A failed write or fsync leaves the file in an unknown state, and writing later records after it would make them
+ * unreachable on recovery. Hence after the first failure the log refuses all further appends and waits with that
+ * failure, and only reopening the log recovers it.
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int TRAILER_BYTES = Integer.BYTES;
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private FileChannel channel;
+    private ByteArrayOutputStream pending;
+    private long writtenBytes;
+    private long appendedBytes;
+    private long lastAppended;
+    private long lastDurable;
+    private boolean syncInProgress;
+    private IOException failure;
+
+    private WriteAheadLog(Path file, FileChannel channel, long writtenBytes, long lastSequence) {
+        this.file = file;
+        this.channel = channel;
+        this.pending = new ByteArrayOutputStream();
+        this.writtenBytes = writtenBytes;
+        this.appendedBytes = writtenBytes;
+        this.lastAppended = lastSequence;
+        this.lastDurable = lastSequence;
+    }
+
+    /**
+     * Opens a log, passes every intact record with a sequence number above @afterSequence to @replay in order,
+     * and cuts off anything after the last intact record.
+     *
+     * @param file          the path of the log, which is created if it does not exist
+     * @param afterSequence the last sequence number that is already reflected elsewhere, e.g. in a snapshot
+     * @param replay        receives the sequence number and the payload of every replayed record
+     */
+    static WriteAheadLog open(Path file, long afterSequence, BiConsumer<Long, byte[]> replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long lastSequence = afterSequence;
+            long intactLength = 0;
+            long size = channel.size();
+            // not closed, since that would close the channel
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel),
+                    READ_BUFFER_SIZE));
+
+            try {
+                while (intactLength < size) {
+                    int length = in.readInt();
+                    long sequence = in.readLong();
+                    if (length < 0 || length > size - intactLength) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    if (in.readInt() != checksum(sequence, payload, 0, length)) {
+                        break;
+                    }
+                    intactLength += HEADER_BYTES + length + TRAILER_BYTES;
+                    if (sequence > afterSequence) {
+                        replay.accept(sequence, payload);
+                        lastSequence = sequence;
+                    }
+                }
+            } catch (EOFException e) {
+                // a record torn by a crash ends the log
+            }
+
+            channel.truncate(intactLength);
+            channel.position(intactLength);
+            return new WriteAheadLog(file.toAbsolutePath(), channel, intactLength, lastSequence);
+
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a record in memory. It becomes durable with the next completed awaitDurable().
+     *
+     * @return the sequence number of the record
+     * @throws IOException if an earlier write or fsync of the log failed
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        checkNotFailed();
+        long sequence = ++lastAppended;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(payload.length).putLong(sequence);
+        pending.write(header.array(), 0, HEADER_BYTES);
+        pending.write(payload, 0, payload.length);
+        int crc = checksum(sequence, payload, 0, payload.length);
+        pending.write(ByteBuffer.allocate(TRAILER_BYTES).putInt(crc).array(), 0, TRAILER_BYTES);
+        appendedBytes += HEADER_BYTES + payload.length + TRAILER_BYTES;
+        return sequence;
+    }
+
+    /**
+     * @return the sequence number of the last appended record
+     */
+    synchronized long lastSequence() {
+        return lastAppended;
+    }
+
+    /**
+     * @return the position in the log right after the last appended record, to be passed to discardUpTo()
+     */
+    synchronized long endOffset() {
+        return appendedBytes;
+    }
+
+    /**
+     * @return the failure of a write or fsync that made the log unusable, or null if there was none
+     */
+    synchronized IOException failure() {
+        return failure;
+    }
+
+    /**
+     * Blocks until the record with sequence number @sequence and all records before it are on disk.
+     * If no other thread is writing, the calling thread writes everything appended so far and forces it;
+     * otherwise it waits for that thread and, if needed, writes the records appended meanwhile.
+     *
+     * @throws IOException if the records could not be written or forced, now or by an earlier call
+     */
+    void awaitDurable(long sequence) throws IOException {
+        while (true) {
+            byte[] batch;
+            long batchEnd;
+            FileChannel target;
+            synchronized (this) {
+                while (syncInProgress && lastDurable < sequence) {
+                    waitForSync();
+                }
+                if (lastDurable >= sequence) {
+                    return;
+                }
+                checkNotFailed();
+                syncInProgress = true;
+                batch = pending.toByteArray();
+                batchEnd = lastAppended;
+                target = channel;
+                pending = new ByteArrayOutputStream();
+            }
+
+            boolean written = false;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                target.force(false);
+                written = true;
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            } finally {
+                synchronized (this) {
+                    syncInProgress = false;
+                    if (written) {
+                        writtenBytes += batch.length;
+                        lastDurable = batchEnd;
+                    } else if (failure == null) {
+                        failure = new IOException("Could not write the log " + file);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the records before @offset once they are durable elsewhere, e.g. in a snapshot. The records after
+     * them are copied to a new file which then atomically replaces the log, so appending can go on meanwhile
+     * and only threads waiting for an fsync wait for the copy.
+     *
+     * @param offset a position returned by endOffset()
+     */
+    void discardUpTo(long offset) throws IOException {
+        long end;
+        synchronized (this) {
+            while (syncInProgress) {
+                waitForSync();
+            }
+            checkNotFailed();
+            syncInProgress = true;
+            end = writtenBytes;
+        }
+        // records not written yet are kept, and will be written after the copied ones
+        long dropped = Math.min(offset, end);
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel compacted = null;
+        boolean moved = false;
+        boolean replaced = false;
+        try {
+            compacted = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long position = dropped;
+            while (position < end) {
+                position += channel.transferTo(position, end - position, compacted);
+            }
+            compacted.force(false);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            moved = true;
+            forceDirectory(file.getParent());
+            replaced = true;
+        } catch (IOException e) {
+            if (moved) {
+                // the rename may be lost by a crash, and with it every record appended to the new file
+                fail(e);
+            }
+            throw e;
+        } finally {
+            FileChannel unused;
+            synchronized (this) {
+                if (moved) {
+                    unused = channel;
+                    channel = compacted;
+                    writtenBytes -= dropped;
+                    appendedBytes -= dropped;
+                    if (!replaced && failure == null) {
+                        failure = new IOException("Could not force the replacement of the log " + file);
+                    }
+                } else {
+                    unused = compacted;
+                }
+                syncInProgress = false;
+                notifyAll();
+            }
+            if (unused != null) {
+                unused.close();
+            }
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, so that files created or renamed in it survive a crash.
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory as a file, and its file systems journal renames themselves
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitDurable(lastSequence());
+        } finally {
+            synchronized (this) {
+                channel.close();
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void checkNotFailed() throws IOException {
+        if (failure != null) {
+            throw new IOException("The log " + file + " failed earlier and must be reopened", failure);
+        }
+    }
+
+    private void waitForSync() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the log to be forced");
+        }
+    }
+
+    private static int checksum(long sequence, byte[] payload, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+
+}
@@ -0,0 +1,161 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactMJTExpressWarehouseTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2021-01-10T12:00:00Z"), ZoneOffset.UTC);
+    private static final LocalDateTime NOW = LocalDateTime.now(CLOCK);
+    private static final int RETENTION_PERIOD = 5;
+
+    @Test
+    public void testRangeDeliveriesKeepSubmissionsAtTheBoundary() throws CapacityExceededException {
+        CompactMJTExpressWarehouse<String, String> warehouse =
+                new CompactMJTExpressWarehouse<>(10, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("old", "old parcel", NOW.minusDays(2));
+        warehouse.submitParcel("boundary", "boundary parcel", NOW.minusDays(1));
+        warehouse.submitParcel("also boundary", "also boundary parcel", NOW.minusDays(1));
+        warehouse.submitParcel("recent", "recent parcel", NOW);
+
+        assertEquals(Map.of("old", "old parcel"), warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1)));
+        assertEquals(Map.of("recent", "recent parcel"), warehouse.deliverParcelsSubmittedAfter(NOW.minusDays(1)));
+        assertEquals(Map.of("boundary", "boundary parcel", "also boundary", "also boundary parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testResubmissionMovesParcelToNewDate() throws CapacityExceededException {
+        CompactMJTExpressWarehouse<String, String> warehouse =
+                new CompactMJTExpressWarehouse<>(10, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("label", "old parcel", NOW.minusDays(2));
+        warehouse.submitParcel("label", "new parcel", NOW);
+
+        assertEquals(Map.of(), warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1)));
+        assertEquals("new parcel", warehouse.getParcel("label"));
+        assertEquals(0.9, warehouse.getWarehouseSpaceLeft(), 0.001);
+    }
+
+    @Test(expected = CapacityExceededException.class)
+    public void testSubmitToFullWarehouseWithoutExpiredParcels() throws CapacityExceededException {
+        CompactMJTExpressWarehouse<String, String> warehouse =
+                new CompactMJTExpressWarehouse<>(1, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("first", "first parcel", NOW);
+
+        warehouse.submitParcel("second", "second parcel", NOW);
+    }
+
+    @Test
+    public void testBehavesLikeMJTExpressWarehouse() throws Exception {
+        int capacity = 500;
+        Random random = new Random(42);
+        MJTExpressWarehouse<Integer, Integer> expected = new MJTExpressWarehouse<>(capacity, RETENTION_PERIOD, CLOCK);
+        CompactMJTExpressWarehouse<Integer, Integer> actual =
+                new CompactMJTExpressWarehouse<>(capacity, RETENTION_PERIOD, CLOCK);
+
+        for (int i = 0; i < 20_000; i++) {
+            Integer label = random.nextInt(2 * capacity);
+            LocalDateTime date = NOW.minusMinutes(random.nextInt(10 * 24 * 60));
+            int operation = random.nextInt(100);
+            if (operation < 60) {
+                assertEquals(submit(expected, label, i, date), submit(actual, label, i, date));
+            } else if (operation < 65) {
+                Map<Integer, Integer> batch = new LinkedHashMap<>();
+                for (int j = 0; j < 20; j++) {
+                    batch.put(random.nextInt(2 * capacity), i);
+                }
+                assertEquals(expected.submitParcels(batch, date), actual.submitParcels(batch, date));
+            } else if (operation < 70) {
+                List<Integer> labels = random.ints(20, 0, 2 * capacity).boxed().collect(Collectors.toList());
+                assertEquals(expected.deliverParcels(labels), actual.deliverParcels(labels));
+            } else if (operation < 85) {
+                assertEquals(deliver(expected, label), deliver(actual, label));
+            } else if (operation < 90) {
+                assertEquals(expected.getParcel(label), actual.getParcel(label));
+                assertEquals(expected.countParcelsSubmittedBetween(date, date.plusDays(1)),
+                        actual.countParcelsSubmittedBetween(date, date.plusDays(1)));
+                assertEquals(expected.getParcelsSubmittedBetween(date, date.plusHours(1)),
+                        actual.getParcelsSubmittedBetween(date, date.plusHours(1)));
+            } else if (operation < 93) {
+                assertEquals(expected.deliverParcelsSubmittedBefore(date.minusDays(RETENTION_PERIOD)),
+                        actual.deliverParcelsSubmittedBefore(date.minusDays(RETENTION_PERIOD)));
+            } else if (operation < 95) {
+                assertEquals(streamAfter(expected, date.plusDays(RETENTION_PERIOD / 2)),
+                        streamAfter(actual, date.plusDays(RETENTION_PERIOD / 2)));
+            } else {
+                assertEquals(expected.deliverParcelsSubmittedAfter(date.plusDays(RETENTION_PERIOD)),
+                        actual.deliverParcelsSubmittedAfter(date.plusDays(RETENTION_PERIOD)));
+            }
+            assertEquals(expected.getWarehouseSpaceLeft(), actual.getWarehouseSpaceLeft(), 0.001);
+        }
+        assertEquals(expected.getWarehouseItems(), actual.getWarehouseItems());
+    }
+
+    @Test
+    public void testStreamDeliveriesInSubmissionOrder() throws CapacityExceededException {
+        int count = 1000;
+        CompactMJTExpressWarehouse<Integer, String> warehouse =
+                new CompactMJTExpressWarehouse<>(count, RETENTION_PERIOD, CLOCK);
+        for (int label = 0; label < count; label++) {
+            warehouse.submitParcel(label, "parcel" + label, NOW.minusSeconds((label * 7919L) % count));
+        }
+
+        List<Integer> oldest = warehouse.streamDeliveriesSubmittedBefore(NOW)
+                .limit(300)
+                .map(entry -> entry.getKey() * 7919 % count)
+                .collect(Collectors.toList());
+
+        assertEquals(IntStream.range(0, 300).map(second -> count - 1 - second).boxed().collect(Collectors.toList()),
+                oldest);
+        assertEquals(count - 300, warehouse.getWarehouseItems().size());
+        assertEquals(Map.of(0, "parcel0"), warehouse.streamDeliveriesSubmittedAfter(NOW.minusNanos(1))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+    }
+
+    @Test
+    public void testDeliverMissingParcelReturnsNothing() {
+        CompactMJTExpressWarehouse<String, String> warehouse =
+                new CompactMJTExpressWarehouse<>(10, RETENTION_PERIOD, CLOCK);
+
+        assertNull(deliver(warehouse, "missing"));
+    }
+
+    private static <L, P> boolean submit(DeliveryServiceWarehouse<L, P> warehouse, L label, P parcel,
+                                         LocalDateTime date) {
+        try {
+            warehouse.submitParcel(label, parcel, date);
+            return true;
+        } catch (CapacityExceededException e) {
+            return false;
+        }
+    }
+
+    private static <L, P> Map<L, P> streamAfter(DeliveryServiceWarehouse<L, P> warehouse, LocalDateTime after) {
+        return warehouse.streamDeliveriesSubmittedAfter(after)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
+    private static <L, P> P deliver(DeliveryServiceWarehouse<L, P> warehouse, L label) {
+        try {
+            return warehouse.deliverParcel(label);
+        } catch (ParcelNotFoundException e) {
+            return null;
+        }
+    }
+
+}
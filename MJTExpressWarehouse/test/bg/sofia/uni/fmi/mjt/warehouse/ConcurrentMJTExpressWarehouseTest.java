@@ -0,0 +1,207 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentMJTExpressWarehouseTest {
+
+    private static final int THREADS = 16;
+    private static final int CAPACITY = 1000;
+    private static final int RETENTION_PERIOD = 30;
+
+    private ExecutorService executor;
+
+    @Before
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSubmitParcelNeverExceedsCapacity() throws Exception {
+        ConcurrentMJTExpressWarehouse<Integer, String> warehouse =
+                new ConcurrentMJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD);
+        LocalDateTime submissionDate = LocalDateTime.now().minusDays(1);
+        AtomicInteger submitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> submitters = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int firstLabel = thread * CAPACITY;
+            submitters.add(executor.submit(() -> {
+                start.await();
+                for (int label = firstLabel; label < firstLabel + CAPACITY; label++) {
+                    try {
+                        warehouse.submitParcel(label, "parcel" + label, submissionDate);
+                        submitted.incrementAndGet();
+                    } catch (CapacityExceededException e) {
+                        // expected once the warehouse is full
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> submitter : submitters) {
+            submitter.get();
+        }
+
+        assertEquals(CAPACITY, submitted.get());
+        assertEquals(CAPACITY, warehouse.getWarehouseItems().size());
+        assertEquals(0.0, warehouse.getWarehouseSpaceLeft(), 0.0);
+    }
+
+    @Test
+    public void testCapacityHoldsUnderMixedSubmitsAndDeliveries() throws Exception {
+        ConcurrentMJTExpressWarehouse<Integer, String> warehouse =
+                new ConcurrentMJTExpressWarehouse<>(CAPACITY / 10, RETENTION_PERIOD);
+        LocalDateTime now = LocalDateTime.now();
+        AtomicInteger stored = new AtomicInteger();
+        AtomicInteger mostStored = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        // every few submits the workers meet, and while they wait the parcels actually stored are counted
+        CyclicBarrier checkpoint = new CyclicBarrier(THREADS, () -> mostStored.accumulateAndGet(
+                new HashMap<>(warehouse.getWarehouseItems()).size(), Math::max));
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int firstLabel = thread * CAPACITY;
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int label = firstLabel; label < firstLabel + CAPACITY; label++) {
+                    if (label % 100 == 0) {
+                        checkpoint.await(10, TimeUnit.SECONDS);
+                    }
+                    try {
+                        warehouse.submitParcel(label, "parcel", now.minusMinutes(label % 100));
+                        stored.incrementAndGet();
+                    } catch (CapacityExceededException e) {
+                        Map<Integer, String> delivered = warehouse.deliverParcelsSubmittedBefore(now.minusMinutes(50));
+                        stored.addAndGet(-delivered.size());
+                        continue;
+                    }
+                    if (label % 3 == 0) {
+                        try {
+                            warehouse.deliverParcel(label);
+                            stored.decrementAndGet();
+                        } catch (ParcelNotFoundException e) {
+                            // delivered and counted meanwhile by another worker's range delivery
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+
+        assertTrue(mostStored.get() > 0);
+        assertTrue(mostStored.get() <= CAPACITY / 10);
+        assertEquals(stored.get(), warehouse.getWarehouseItems().size());
+    }
+
+    @Test
+    public void testSubmitParcelsStoresExactlyCapacity() throws Exception {
+        ConcurrentMJTExpressWarehouse<Integer, String> warehouse =
+                new ConcurrentMJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD);
+        LocalDateTime submissionDate = LocalDateTime.now().minusDays(1);
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> submitters = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            Map<Integer, String> batch = new HashMap<>();
+            for (int label = thread * CAPACITY / 4; label < (thread + 1) * CAPACITY / 4; label++) {
+                batch.put(label, "parcel" + label);
+            }
+            submitters.add(executor.submit(() -> {
+                start.await();
+                rejected.addAndGet(warehouse.submitParcels(batch, submissionDate).size());
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> submitter : submitters) {
+            submitter.get();
+        }
+
+        assertEquals(THREADS * CAPACITY / 4 - CAPACITY, rejected.get());
+        assertEquals(CAPACITY, warehouse.getWarehouseItems().size());
+        assertEquals(CAPACITY, warehouse.countParcelsSubmittedBetween(submissionDate, submissionDate.plusNanos(1)));
+        assertEquals(warehouse.getWarehouseItems(),
+                warehouse.getParcelsSubmittedBetween(submissionDate.minusDays(1), submissionDate.plusDays(1)));
+    }
+
+    @Test
+    public void testDeliverParcelDeliversEachParcelOnce() throws Exception {
+        ConcurrentMJTExpressWarehouse<Integer, String> warehouse =
+                new ConcurrentMJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD);
+        LocalDateTime submissionDate = LocalDateTime.now();
+        for (int label = 0; label < CAPACITY; label++) {
+            warehouse.submitParcel(label, "parcel" + label, submissionDate);
+        }
+        AtomicInteger delivered = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> deliverers = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            boolean byRange = thread % 4 == 0;
+            boolean byStream = thread % 4 == 1;
+            deliverers.add(executor.submit(() -> {
+                start.await();
+                if (byRange) {
+                    delivered.addAndGet(warehouse.deliverParcelsSubmittedBefore(submissionDate.plusSeconds(1)).size());
+                    return null;
+                } else if (byStream) {
+                    warehouse.streamDeliveriesSubmittedBefore(submissionDate.plusSeconds(1))
+                            .forEach(entry -> delivered.incrementAndGet());
+                    return null;
+                }
+                for (int label = 0; label < CAPACITY; label++) {
+                    try {
+                        warehouse.deliverParcel(label);
+                        delivered.incrementAndGet();
+                    } catch (ParcelNotFoundException e) {
+                        // delivered by another thread
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> deliverer : deliverers) {
+            deliverer.get();
+        }
+
+        assertEquals(CAPACITY, delivered.get());
+        assertNull(warehouse.getParcel(0));
+        assertEquals(1.0, warehouse.getWarehouseSpaceLeft(), 0.0);
+    }
+
+}
@@ -0,0 +1,317 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DurableMJTExpressWarehouseTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2021-01-10T12:00:00Z"), ZoneOffset.UTC);
+    private static final LocalDateTime NOW = LocalDateTime.now(CLOCK);
+    private static final int CAPACITY = 100;
+    private static final int RETENTION_PERIOD = 5;
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("warehouse");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReopenReplaysLog() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            warehouse.submitParcel("old", "old parcel", NOW.minusDays(3));
+            warehouse.submitParcel("kept", "kept parcel", NOW.minusDays(2));
+            warehouse.submitParcel("delivered", "delivered parcel", NOW.minusDays(1));
+            warehouse.submitParcel("recent", "recent parcel", NOW);
+            warehouse.deliverParcel("delivered");
+            warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(2).minusHours(1));
+            warehouse.deliverParcelsSubmittedAfter(NOW.minusHours(1));
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(Map.of("kept", "kept parcel"), warehouse.getWarehouseItems());
+        }
+    }
+
+    @Test
+    public void testReopenLoadsSnapshotAndLogTail() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(10)) {
+            for (int i = 0; i < 25; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i));
+            }
+            warehouse.deliverParcel("label3");
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(10)) {
+            assertEquals(24, warehouse.getWarehouseItems().size());
+            assertNull(warehouse.getParcel("label3"));
+            assertEquals("parcel24", warehouse.getParcel("label24"));
+        }
+    }
+
+    @Test
+    public void testSnapshotKeepsLaterLogRecords() throws Exception {
+        long logSizeAfterSnapshot;
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            for (int i = 0; i < 5; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i));
+            }
+            warehouse.snapshot();
+            logSizeAfterSnapshot = Files.size(directory.resolve("warehouse.log"));
+            warehouse.submitParcel("later", "later parcel", NOW);
+            warehouse.deliverParcel("label0");
+        }
+
+        assertEquals(0, logSizeAfterSnapshot);
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(5, warehouse.getWarehouseItems().size());
+            assertNull(warehouse.getParcel("label0"));
+            assertEquals("later parcel", warehouse.getParcel("later"));
+        }
+    }
+
+    @Test
+    public void testSnapshotIsWrittenInTheBackground() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(10)) {
+            for (int i = 0; i < 30; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i));
+            }
+        }
+
+        assertTrue(Files.exists(directory.resolve("warehouse.snapshot")));
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(10)) {
+            assertEquals(30, warehouse.getWarehouseItems().size());
+        }
+    }
+
+    @Test
+    public void testWarehouseItemsIsAReadOnlyView() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            Map<String, String> items = warehouse.getWarehouseItems();
+            warehouse.submitParcel("label", "parcel", NOW);
+
+            assertEquals(Map.of("label", "parcel"), items);
+            assertTrue(items.containsKey("label"));
+
+            warehouse.deliverParcel("label");
+            assertTrue(items.isEmpty());
+            assertNull(items.get("label"));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWarehouseItemsCannotBeModified() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            warehouse.submitParcel("label", "parcel", NOW);
+
+            warehouse.getWarehouseItems().remove("label");
+        }
+    }
+
+    @Test
+    public void testReopenReplaysExpiry() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            warehouse.submitParcel("expired", "expired parcel", NOW.minusDays(RETENTION_PERIOD + 1));
+            warehouse.submitParcel("fresh", "fresh parcel", NOW);
+            assertEquals(1, warehouse.removeExpiredParcels());
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(Map.of("fresh", "fresh parcel"), warehouse.getWarehouseItems());
+        }
+    }
+
+    @Test
+    public void testReopenReplaysBatches() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            warehouse.submitParcels(Map.of("first", "first parcel", "second", "second parcel",
+                    "third", "third parcel"), NOW.minusDays(1));
+            assertEquals(Map.of("first", "first parcel", "third", "third parcel"),
+                    warehouse.deliverParcels(List.of("first", "missing", "third")));
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(Map.of("second", "second parcel"), warehouse.getWarehouseItems());
+        }
+    }
+
+    @Test
+    public void testReopenReplaysStreamedDeliveries() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            for (int i = 0; i < 10; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i));
+            }
+            assertEquals(List.of("label9", "label8", "label7"), warehouse.streamDeliveriesSubmittedBefore(NOW)
+                    .limit(3)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toList()));
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(7, warehouse.getWarehouseItems().size());
+            assertNull(warehouse.getParcel("label7"));
+            assertEquals("parcel6", warehouse.getParcel("label6"));
+        }
+    }
+
+    @Test
+    public void testStreamStoppedEarlyRemovesOnlyYieldedItems() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            for (int i = 0; i < CAPACITY; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i + 1));
+            }
+            assertEquals(4, warehouse.streamDeliveriesSubmittedBefore(NOW).limit(4).count());
+            assertEquals(CAPACITY - 4, warehouse.getWarehouseItems().size());
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(CAPACITY - 4, warehouse.getWarehouseItems().size());
+            assertEquals("parcel95", warehouse.getParcel("label95"));
+            assertEquals(CAPACITY - 4, warehouse.streamDeliveriesSubmittedBefore(NOW).count());
+        }
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(Map.of(), warehouse.getWarehouseItems());
+        }
+    }
+
+    @Test
+    public void testClosedStreamLogsBackItemsNotYielded() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            for (int i = 0; i < CAPACITY; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i + 1));
+            }
+            try (Stream<Map.Entry<String, String>> deliveries = warehouse.streamDeliveriesSubmittedBefore(NOW)) {
+                assertEquals(4, deliveries.limit(4).count());
+            }
+            warehouse.snapshot();
+            assertEquals("parcel95", warehouse.deliverParcel("label95"));
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(CAPACITY - 5, warehouse.getWarehouseItems().size());
+            assertNull(warehouse.getParcel("label95"));
+            assertEquals("parcel94", warehouse.getParcel("label94"));
+        }
+    }
+
+    @Test
+    public void testSnapshotLeavesOutItemsLoggedAheadOfAStream() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            for (int i = 0; i < CAPACITY; i++) {
+                warehouse.submitParcel("label" + i, "parcel" + i, NOW.minusMinutes(i + 1));
+            }
+            Iterator<Map.Entry<String, String>> deliveries = warehouse.streamDeliveriesSubmittedBefore(NOW).iterator();
+            for (int i = 0; i < 4; i++) {
+                deliveries.next();
+            }
+            warehouse.snapshot();
+            assertEquals("label95", deliveries.next().getKey());
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(CAPACITY - 5, warehouse.getWarehouseItems().size());
+            assertNull(warehouse.getParcel("label95"));
+            assertEquals("parcel94", warehouse.getParcel("label94"));
+        }
+    }
+
+    @Test
+    public void testFailedLogWriteMakesWarehouseUnusable() throws Exception {
+        DurableMJTExpressWarehouse<String, String> warehouse = open(0);
+        warehouse.submitParcel("durable", "durable parcel", NOW);
+
+        // an interrupt closes the log's FileChannel, so the write of the next record fails
+        Thread.currentThread().interrupt();
+        try {
+            warehouse.submitParcel("lost", "lost parcel", NOW);
+            fail("The submission was reported durable although the log could not be written");
+        } catch (UncheckedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+
+        try {
+            warehouse.getParcel("lost");
+            fail("A warehouse whose log failed was still used");
+        } catch (UncheckedIOException e) {
+            // expected until the warehouse is reopened
+        }
+        try {
+            warehouse.deliverParcel("durable");
+            fail("A warehouse whose log failed was still used");
+        } catch (UncheckedIOException e) {
+            // expected until the warehouse is reopened
+        }
+        try {
+            warehouse.close();
+            fail("Closing a warehouse whose log failed did not report the failure");
+        } catch (IOException e) {
+            // the channel is closed anyway
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> reopened = open(0)) {
+            assertEquals(Map.of("durable", "durable parcel"), reopened.getWarehouseItems());
+            reopened.submitParcel("later", "later parcel", NOW);
+        }
+        try (DurableMJTExpressWarehouse<String, String> reopened = open(0)) {
+            assertEquals(Map.of("durable", "durable parcel", "later", "later parcel"),
+                    reopened.getWarehouseItems());
+        }
+    }
+
+    @Test
+    public void testReopenIgnoresTornLogTail() throws Exception {
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            warehouse.submitParcel("first", "first parcel", NOW);
+            warehouse.submitParcel("second", "second parcel", NOW);
+        }
+        Path log = directory.resolve("warehouse.log");
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(Map.of("first", "first parcel"), warehouse.getWarehouseItems());
+            warehouse.submitParcel("third", "third parcel", NOW);
+        }
+        try (DurableMJTExpressWarehouse<String, String> warehouse = open(0)) {
+            assertEquals(2, warehouse.getWarehouseItems().size());
+        }
+    }
+
+    private DurableMJTExpressWarehouse<String, String> open(int snapshotInterval) throws IOException {
+        return DurableMJTExpressWarehouse.open(directory, CAPACITY, RETENTION_PERIOD, ParcelCodec.strings(),
+                ParcelCodec.strings(), snapshotInterval, CLOCK);
+    }
+
+}
@@ -0,0 +1,104 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class EvictionPolicyTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2021-01-10T12:00:00Z"), ZoneOffset.UTC);
+    private static final LocalDateTime NOW = LocalDateTime.now(CLOCK);
+    private static final int CAPACITY = 3;
+    private static final int RETENTION_PERIOD = 5;
+
+    @Test(expected = CapacityExceededException.class)
+    public void testRetentionKeepsParcelsWithinRetentionPeriod() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = fill(EvictionPolicy.retention());
+
+        warehouse.submitParcel("new", "new parcel", NOW);
+    }
+
+    @Test
+    public void testRetentionEvictsExpiredParcels() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse =
+                new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK, EvictionPolicy.retention());
+        warehouse.submitParcel("expired", "expired parcel", NOW.minusDays(RETENTION_PERIOD + 2));
+        warehouse.submitParcel("second", "second parcel", NOW.minusDays(2));
+        warehouse.submitParcel("third", "third parcel", NOW.minusDays(1));
+
+        warehouse.submitParcel("new", "new parcel", NOW);
+
+        assertEquals(Map.of("second", "second parcel", "third", "third parcel", "new", "new parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testOldestFirstEvictsEarliestSubmission() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = fill(EvictionPolicy.oldestFirst());
+
+        warehouse.getParcel("first");
+        warehouse.submitParcel("new", "new parcel", NOW);
+
+        assertEquals(Map.of("second", "second parcel", "third", "third parcel", "new", "new parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictsParcelNotReadLongest() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = fill(EvictionPolicy.leastRecentlyUsed());
+
+        warehouse.getParcel("first");
+        warehouse.submitParcel("new", "new parcel", NOW);
+        warehouse.getParcel("third");
+        warehouse.submitParcel("newer", "newer parcel", NOW);
+
+        assertEquals(Map.of("new", "new parcel", "third", "third parcel", "newer", "newer parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedForgetsDeliveredParcels() throws Exception {
+        MJTExpressWarehouse<String, String> warehouse = fill(EvictionPolicy.leastRecentlyUsed());
+
+        warehouse.deliverParcel("first");
+        warehouse.submitParcel("new", "new parcel", NOW);
+        warehouse.submitParcel("newer", "newer parcel", NOW);
+
+        assertEquals(Map.of("third", "third parcel", "new", "new parcel", "newer", "newer parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testExpiredFirstThenOldestEvictsAllExpiredParcels() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse =
+                new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK, EvictionPolicy.expiredFirstThenOldest());
+        warehouse.submitParcel("expired", "expired parcel", NOW.minusDays(RETENTION_PERIOD + 2));
+        warehouse.submitParcel("also expired", "also expired parcel", NOW.minusDays(RETENTION_PERIOD + 1));
+        warehouse.submitParcel("kept", "kept parcel", NOW.minusDays(1));
+
+        warehouse.submitParcel("new", "new parcel", NOW);
+        warehouse.submitParcel("newer", "newer parcel", NOW);
+        warehouse.submitParcel("newest", "newest parcel", NOW);
+
+        assertEquals(Map.of("new", "new parcel", "newer", "newer parcel", "newest", "newest parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    private MJTExpressWarehouse<String, String> fill(EvictionPolicy<String> policy)
+            throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse =
+                new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK, policy);
+        warehouse.submitParcel("first", "first parcel", NOW.minusDays(3));
+        warehouse.submitParcel("second", "second parcel", NOW.minusDays(2));
+        warehouse.submitParcel("third", "third parcel", NOW.minusDays(1));
+        return warehouse;
+    }
+
+}
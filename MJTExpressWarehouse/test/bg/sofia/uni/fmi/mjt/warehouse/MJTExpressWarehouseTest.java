@@ -0,0 +1,213 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MJTExpressWarehouseTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2021-01-10T12:00:00Z"), ZoneOffset.UTC);
+    private static final LocalDateTime NOW = LocalDateTime.now(CLOCK);
+    private static final int CAPACITY = 1000;
+    private static final int RETENTION_PERIOD = 5;
+
+    @Test
+    public void testStreamDeliveriesInSubmissionOrder() throws CapacityExceededException {
+        MJTExpressWarehouse<Integer, String> warehouse = filledWarehouse();
+
+        List<Integer> delivered = warehouse.streamDeliveriesSubmittedBefore(NOW.minusMinutes(CAPACITY / 2))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        assertEquals(IntStream.range(CAPACITY / 2 + 1, CAPACITY).boxed()
+                .sorted((first, second) -> second - first)
+                .collect(Collectors.toList()), delivered);
+        assertEquals(CAPACITY / 2 + 1, warehouse.getWarehouseItems().size());
+    }
+
+    @Test
+    public void testStoppedStreamLeavesRemainingParcels() throws CapacityExceededException {
+        MJTExpressWarehouse<Integer, String> warehouse = filledWarehouse();
+
+        List<Integer> delivered = warehouse.streamDeliveriesSubmittedAfter(NOW.minusMinutes(CAPACITY))
+                .limit(3)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(CAPACITY - 1, CAPACITY - 2, CAPACITY - 3), delivered);
+        assertNull(warehouse.getParcel(CAPACITY - 1));
+        assertEquals("parcel" + (CAPACITY - 4), warehouse.getParcel(CAPACITY - 4));
+        assertEquals(CAPACITY - 3, warehouse.getWarehouseItems().size());
+    }
+
+    @Test
+    public void testStreamSkipsParcelsDeliveredMeanwhile() throws Exception {
+        MJTExpressWarehouse<Integer, String> warehouse = filledWarehouse();
+        List<Map.Entry<Integer, String>> delivered = warehouse.streamDeliveriesSubmittedAfter(NOW.minusDays(1))
+                .peek(entry -> {
+                    if (entry.getKey() == CAPACITY - 1) {
+                        warehouse.deliverParcelsSubmittedAfter(NOW.minusMinutes(1));
+                    }
+                })
+                .collect(Collectors.toList());
+
+        assertEquals(CAPACITY - 1, delivered.size());
+        assertEquals(Map.of(), warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testWarehouseItemsReflectLaterChanges() throws CapacityExceededException {
+        MJTExpressWarehouse<Integer, String> warehouse = filledWarehouse();
+        Map<Integer, String> items = warehouse.getWarehouseItems();
+
+        warehouse.deliverParcelsSubmittedBefore(NOW.minusMinutes(CAPACITY / 2));
+
+        assertEquals(CAPACITY / 2 + 1, items.size());
+        assertEquals("parcel" + CAPACITY / 2, items.get(CAPACITY / 2));
+        assertNull(items.get(CAPACITY / 2 + 1));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWarehouseItemsCannotBeModified() throws CapacityExceededException {
+        filledWarehouse().getWarehouseItems().remove(0);
+    }
+
+    @Test
+    public void testParcelsSubmittedBetweenAreNotRemoved() throws CapacityExceededException {
+        MJTExpressWarehouse<Integer, String> warehouse = filledWarehouse();
+        LocalDateTime from = NOW.minusMinutes(10);
+
+        Map<Integer, String> window = warehouse.getParcelsSubmittedBetween(from, NOW.minusMinutes(5));
+
+        assertEquals(List.of(10, 9, 8, 7, 6), List.copyOf(window.keySet()));
+        assertEquals(5, warehouse.countParcelsSubmittedBetween(from, NOW.minusMinutes(5)));
+        assertEquals(0, warehouse.countParcelsSubmittedBetween(NOW, from));
+        assertEquals(CAPACITY, warehouse.getWarehouseItems().size());
+    }
+
+    @Test
+    public void testRangeDeliveriesKeepSubmissionsAtTheBoundary() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("old", "old parcel", NOW.minusDays(2));
+        warehouse.submitParcel("boundary", "boundary parcel", NOW.minusDays(1));
+        warehouse.submitParcel("also boundary", "also boundary parcel", NOW.minusDays(1));
+        warehouse.submitParcel("recent", "recent parcel", NOW);
+
+        assertEquals(Map.of("old", "old parcel"), warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1)));
+        assertEquals(Map.of("recent", "recent parcel"), warehouse.deliverParcelsSubmittedAfter(NOW.minusDays(1)));
+        assertEquals(Map.of("boundary", "boundary parcel", "also boundary", "also boundary parcel"),
+                warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testResubmissionMovesParcelToNewDate() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("label", "old parcel", NOW.minusDays(2));
+        warehouse.submitParcel("label", "new parcel", NOW);
+
+        assertEquals(Map.of(), warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1)));
+        assertEquals(0, warehouse.countParcelsSubmittedBetween(NOW.minusDays(3), NOW.minusDays(1)));
+        assertEquals("new parcel", warehouse.getParcel("label"));
+        assertEquals(Map.of("label", "new parcel"), warehouse.deliverParcelsSubmittedAfter(NOW.minusDays(1)));
+        assertEquals(Map.of(), warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testDeliveringOneOfParcelsSharingADateKeepsTheOthers() throws Exception {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        for (String label : List.of("first", "second", "third")) {
+            warehouse.submitParcel(label, label + " parcel", NOW.minusDays(1));
+        }
+
+        assertEquals("second parcel", warehouse.deliverParcel("second"));
+        assertEquals(Map.of("first", "first parcel", "third", "third parcel"),
+                warehouse.deliverParcelsSubmittedBefore(NOW));
+        assertEquals(Map.of(), warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testRemoveExpiredParcelsIncludesTheLastExpiredDate() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        LocalDateTime lastExpiredDate = NOW.minusDays(RETENTION_PERIOD + 1);
+        warehouse.submitParcel("expired", "expired parcel", lastExpiredDate);
+        warehouse.submitParcel("older", "older parcel", lastExpiredDate.minusDays(3));
+        warehouse.submitParcel("same date", "same date parcel", lastExpiredDate.minusDays(3));
+        warehouse.submitParcel("kept", "kept parcel", lastExpiredDate.plusNanos(1));
+        warehouse.submitParcel("recent", "recent parcel", NOW.minusDays(RETENTION_PERIOD));
+
+        assertEquals(3, warehouse.removeExpiredParcels());
+        assertEquals(Map.of("kept", "kept parcel", "recent", "recent parcel"), warehouse.getWarehouseItems());
+        assertEquals(0, warehouse.removeExpiredParcels());
+    }
+
+    @Test
+    public void testFullWarehouseEvictsOnlyExpiredParcels() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(2, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("expired", "expired parcel", NOW.minusDays(RETENTION_PERIOD + 1));
+        warehouse.submitParcel("kept", "kept parcel", NOW.minusDays(RETENTION_PERIOD + 1).plusNanos(1));
+
+        warehouse.submitParcel("new", "new parcel", NOW);
+
+        assertEquals(Map.of("kept", "kept parcel", "new", "new parcel"), warehouse.getWarehouseItems());
+    }
+
+    @Test(expected = CapacityExceededException.class)
+    public void testFullWarehouseWithoutExpiredParcels() throws CapacityExceededException {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(1, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("kept", "kept parcel", NOW.minusDays(RETENTION_PERIOD + 1).plusNanos(1));
+
+        warehouse.submitParcel("new", "new parcel", NOW);
+    }
+
+    @Test
+    public void testScheduledExpiryRemovesExpiredParcels() throws Exception {
+        MJTExpressWarehouse<String, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel("expired", "expired parcel", NOW.minusDays(RETENTION_PERIOD + 2));
+        warehouse.submitParcel("kept", "kept parcel", NOW);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            ScheduledFuture<?> expiry = warehouse.scheduleExpiry(scheduler, Duration.ofMillis(10));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            int left;
+            do {
+                Thread.sleep(10);
+                synchronized (warehouse) {
+                    left = warehouse.getWarehouseItems().size();
+                }
+            } while (left > 1 && System.nanoTime() < deadline);
+            expiry.cancel(false);
+
+            synchronized (warehouse) {
+                assertEquals(Map.of("kept", "kept parcel"), warehouse.getWarehouseItems());
+            }
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private MJTExpressWarehouse<Integer, String> filledWarehouse() throws CapacityExceededException {
+        MJTExpressWarehouse<Integer, String> warehouse = new MJTExpressWarehouse<>(CAPACITY, RETENTION_PERIOD, CLOCK);
+        for (int label = 0; label < CAPACITY; label++) {
+            warehouse.submitParcel(label, "parcel" + label, NOW.minusMinutes(label));
+        }
+        return warehouse;
+    }
+
+}
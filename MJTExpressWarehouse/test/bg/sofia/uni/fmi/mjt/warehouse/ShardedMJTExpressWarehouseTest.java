@@ -0,0 +1,254 @@
+package bg.sofia.uni.fmi.mjt.warehouse;
+
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.CapacityExceededException;
+import bg.sofia.uni.fmi.mjt.warehouse.exceptions.ParcelNotFoundException;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedMJTExpressWarehouseTest {
+
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2021-01-10T12:00:00Z"), ZoneOffset.UTC);
+    private static final LocalDateTime NOW = LocalDateTime.now(CLOCK);
+    private static final int SHARDS = 4;
+    private static final int CAPACITY_PER_SHARD = 2;
+    private static final int RETENTION_PERIOD = 5;
+
+    @Test
+    public void testFullHomeShardSpillsOver() throws Exception {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        List<Integer> sameHome = labelsWithHome(warehouse, 0, CAPACITY_PER_SHARD + 1);
+        for (Integer label : sameHome) {
+            warehouse.submitParcel(label, "parcel" + label, NOW);
+        }
+
+        Integer spilled = sameHome.get(CAPACITY_PER_SHARD);
+        assertNotEquals(0, warehouse.shardOf(spilled));
+        assertEquals("parcel" + spilled, warehouse.getParcel(spilled));
+        assertEquals("parcel" + spilled, warehouse.deliverParcel(spilled));
+        assertNull(warehouse.getParcel(spilled));
+        assertEquals(0, warehouse.shardOf(spilled));
+    }
+
+    @Test
+    public void testSpillOverPrefersShardWithFewestItems() throws Exception {
+        int capacityPerShard = 200;
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, capacityPerShard, RETENTION_PERIOD, CLOCK);
+        List<Integer> sameHome = labelsWithHome(warehouse, 0, capacityPerShard + 1);
+        for (Integer label : sameHome.subList(0, capacityPerShard)) {
+            warehouse.submitParcel(label, "parcel" + label, NOW);
+        }
+        // one item leaves 0.995 of shard 1, which rounds to the same space left as the empty shards
+        Integer other = labelsWithHome(warehouse, 1, 1).get(0);
+        warehouse.submitParcel(other, "parcel" + other, NOW);
+
+        Integer spilled = sameHome.get(capacityPerShard);
+        warehouse.submitParcel(spilled, "parcel" + spilled, NOW);
+
+        assertEquals(2, warehouse.shardOf(spilled));
+    }
+
+    @Test
+    public void testSpillOverRacingRangeDeliveriesLosesNoParcel() throws Exception {
+        int capacityPerShard = 50;
+        int submitters = 3;
+        int labelsPerSubmitter = 1000;
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, capacityPerShard, RETENTION_PERIOD, CLOCK);
+        // all labels share a home shard, so that most of them spill over
+        List<Integer> sameHome = labelsWithHome(warehouse, 0, submitters * labelsPerSubmitter);
+        Set<Integer> accepted = ConcurrentHashMap.newKeySet();
+        Set<Integer> delivered = ConcurrentHashMap.newKeySet();
+        AtomicBoolean deliveredTwice = new AtomicBoolean();
+        CountDownLatch submitted = new CountDownLatch(submitters);
+
+        ExecutorService executor = Executors.newFixedThreadPool(submitters + 1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int submitter = 0; submitter < submitters; submitter++) {
+                List<Integer> labels = sameHome.subList(submitter * labelsPerSubmitter,
+                        (submitter + 1) * labelsPerSubmitter);
+                workers.add(executor.submit(() -> {
+                    try {
+                        for (Integer label : labels) {
+                            try {
+                                warehouse.submitParcel(label, "parcel" + label, NOW.minusDays(label % 3));
+                                accepted.add(label);
+                            } catch (CapacityExceededException e) {
+                                continue;
+                            }
+                            if (label % 4 == 0) {
+                                try {
+                                    warehouse.deliverParcel(label);
+                                    deliveredTwice.compareAndSet(false, !delivered.add(label));
+                                } catch (ParcelNotFoundException e) {
+                                    // delivered meanwhile by a range delivery
+                                }
+                            }
+                        }
+                        return null;
+                    } finally {
+                        submitted.countDown();
+                    }
+                }));
+            }
+            workers.add(executor.submit(() -> {
+                do {
+                    Map<Integer, String> old = warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1));
+                    Map<Integer, String> recent = warehouse.deliverParcelsSubmittedAfter(NOW.minusDays(1));
+                    for (Integer label : old.keySet()) {
+                        deliveredTwice.compareAndSet(false, !delivered.add(label));
+                    }
+                    for (Integer label : recent.keySet()) {
+                        deliveredTwice.compareAndSet(false, !delivered.add(label));
+                    }
+                } while (submitted.getCount() > 0);
+                return null;
+            }));
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(deliveredTwice.get());
+        Map<Integer, String> remaining = new HashMap<>(warehouse.getWarehouseItems());
+        assertTrue(Collections.disjoint(delivered, remaining.keySet()));
+        Set<Integer> stored = new HashSet<>(delivered);
+        stored.addAll(remaining.keySet());
+        assertEquals(accepted, stored);
+        // the directory still leads to every parcel left, and forgets it once delivered
+        for (Integer label : remaining.keySet()) {
+            assertEquals("parcel" + label, warehouse.deliverParcel(label));
+        }
+        for (Integer label : accepted) {
+            assertEquals(warehouse.homeShardOf(label), warehouse.shardOf(label));
+        }
+    }
+
+    @Test
+    public void testWarehouseItemsDoesNotCountAsAccess() throws Exception {
+        ShardedMJTExpressWarehouse<String, String> warehouse = new ShardedMJTExpressWarehouse<>(
+                List.of(new MJTExpressWarehouse<>(2, RETENTION_PERIOD, CLOCK, EvictionPolicy.leastRecentlyUsed())));
+        warehouse.submitParcel("first", "parcel", NOW);
+        warehouse.submitParcel("second", "parcel", NOW);
+
+        assertTrue(warehouse.getWarehouseItems().containsKey("first"));
+        warehouse.submitParcel("third", "parcel", NOW);
+
+        assertNull(warehouse.getParcel("first"));
+        assertEquals("parcel", warehouse.getParcel("second"));
+    }
+
+    @Test(expected = CapacityExceededException.class)
+    public void testSubmitToFullWarehouse() throws CapacityExceededException {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        for (int label = 0; label < SHARDS * CAPACITY_PER_SHARD; label++) {
+            warehouse.submitParcel(label, "parcel" + label, NOW);
+        }
+        assertEquals(0.0, warehouse.getWarehouseSpaceLeft(), 0.0);
+
+        warehouse.submitParcel(-1, "one too many", NOW);
+    }
+
+    @Test
+    public void testResubmittingSpilledLabelKeepsOneParcel() throws Exception {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        List<Integer> sameHome = labelsWithHome(warehouse, 0, CAPACITY_PER_SHARD + 1);
+        for (Integer label : sameHome) {
+            warehouse.submitParcel(label, "parcel" + label, NOW);
+        }
+        Integer spilled = sameHome.get(CAPACITY_PER_SHARD);
+
+        warehouse.deliverParcel(sameHome.get(0));
+        warehouse.submitParcel(spilled, "resubmitted", NOW);
+
+        assertEquals("resubmitted", warehouse.getParcel(spilled));
+        assertEquals(CAPACITY_PER_SHARD, warehouse.getWarehouseItems().size());
+    }
+
+    @Test
+    public void testRangeDeliveriesMergeAllShards() throws Exception {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        for (int label = 0; label < SHARDS * CAPACITY_PER_SHARD; label++) {
+            warehouse.submitParcel(label, "parcel" + label, NOW.minusDays(label % 3));
+        }
+
+        Map<Integer, String> old = warehouse.deliverParcelsSubmittedBefore(NOW.minusDays(1));
+        Map<Integer, String> recent = warehouse.deliverParcelsSubmittedAfter(NOW.minusDays(1));
+
+        assertEquals(Map.of(2, "parcel2", 5, "parcel5"), old);
+        assertEquals(Map.of(0, "parcel0", 3, "parcel3", 6, "parcel6"), recent);
+        assertEquals(Map.of(1, "parcel1", 4, "parcel4", 7, "parcel7"), warehouse.getWarehouseItems());
+    }
+
+    @Test
+    public void testWarehouseItemsIsAReadOnlyViewOfAllShards() throws Exception {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        Map<Integer, String> items = warehouse.getWarehouseItems();
+        List<Integer> sameHome = labelsWithHome(warehouse, 0, CAPACITY_PER_SHARD + 1);
+        for (Integer label : sameHome) {
+            warehouse.submitParcel(label, "parcel" + label, NOW);
+        }
+
+        Integer spilled = sameHome.get(CAPACITY_PER_SHARD);
+        assertEquals(CAPACITY_PER_SHARD + 1, items.size());
+        assertTrue(items.containsKey(spilled));
+        assertEquals("parcel" + spilled, items.get(spilled));
+
+        warehouse.deliverParcel(spilled);
+        assertEquals(CAPACITY_PER_SHARD, items.size());
+        assertFalse(items.containsKey(spilled));
+        assertFalse(items.containsKey("not a label"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWarehouseItemsCannotBeModified() throws Exception {
+        ShardedMJTExpressWarehouse<Integer, String> warehouse =
+                ShardedMJTExpressWarehouse.of(SHARDS, CAPACITY_PER_SHARD, RETENTION_PERIOD, CLOCK);
+        warehouse.submitParcel(0, "parcel0", NOW);
+
+        warehouse.getWarehouseItems().entrySet().iterator().remove();
+    }
+
+    private static List<Integer> labelsWithHome(ShardedMJTExpressWarehouse<Integer, String> warehouse,
+                                                int home, int count) {
+        List<Integer> labels = new ArrayList<>();
+        for (int label = 0; labels.size() < count; label++) {
+            if (warehouse.homeShardOf(label) == home) {
+                labels.add(label);
+            }
+        }
+        return labels;
+    }
+
+}